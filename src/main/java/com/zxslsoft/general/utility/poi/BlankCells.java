@@ -0,0 +1,49 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.Closeable;
+
+/**
+ * 遍历时为不存在的单元格提供空白单元格, 空白单元格建在临时工作簿中, 不会修改被遍历的工作簿
+ * 空白单元格的行号、列号与原位置一致, 但 getSheet() 返回的是临时 sheet 页
+ */
+class BlankCells implements Closeable {
+
+    private SXSSFWorkbook scratch;
+    private Sheet sheet;
+
+    Cell get(Row row, int colNum) {
+        if (scratch == null) {
+            scratch = new SXSSFWorkbook(-1);
+            sheet = scratch.createSheet();
+        }
+        Row blankRow = sheet.getRow(row.getRowNum());
+        if (blankRow == null) {
+            blankRow = sheet.createRow(row.getRowNum());
+        }
+        Cell cell = blankRow.getCell(colNum);
+        return cell != null ? cell : blankRow.createCell(colNum);
+    }
+
+    // 该行遍历完毕后释放对应的空白单元格
+    void release(Row row) {
+        if (sheet == null) {
+            return;
+        }
+        Row blankRow = sheet.getRow(row.getRowNum());
+        if (blankRow != null) {
+            sheet.removeRow(blankRow);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scratch != null) {
+            scratch.dispose();
+        }
+    }
+}
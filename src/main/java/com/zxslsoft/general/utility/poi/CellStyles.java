@@ -0,0 +1,268 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.*;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * 工作簿范围内的单元格样式缓存, 属性相同的样式只创建一次
+ * 每次 createCellStyle 都会在样式表中新增一项, 逐个单元格创建时很快就会超过 Excel 64000 个样式的上限
+ * 用法: cell.setCellStyle(CellStyles.of(workbook).get(new CellStyles.Spec().fill(IndexedColors.RED)))
+ * 样式表属于整个工作簿, 查找和创建时以工作簿对象加锁, 与 {@link Pictures} 以及并行导出时创建 sheet 页使用同一把锁
+ */
+public final class CellStyles {
+
+    // 值中只弱引用工作簿, 样式和字体只记下标(样式对象会引用到工作簿), 工作簿不再使用时整项可以被回收
+    private static final Map<Workbook, CellStyles> REGISTRY = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final WeakReference<Workbook> workbook;
+    private final Map<Spec, Integer> styles = new HashMap<>();
+    private final Map<List<Object>, Integer> fonts = new HashMap<>();
+    // 常用的日期样式解析一次后复用; 样式对象会引用到工作簿, 这里只能弱引用, 被回收后重新解析
+    private volatile WeakReference<CellStyle> dateStyle = new WeakReference<>(null);
+    private volatile WeakReference<CellStyle> dateTimeStyle = new WeakReference<>(null);
+
+    private CellStyles(Workbook workbook) {
+        this.workbook = new WeakReference<>(workbook);
+    }
+
+    /**
+     * 获取工作簿对应的样式缓存
+     */
+    public static CellStyles of(Workbook workbook) {
+        return REGISTRY.computeIfAbsent(workbook, CellStyles::new);
+    }
+
+    /**
+     * 获取属性与 spec 相同的样式, 不存在时创建; 返回的样式是共享的, 不要再修改
+     */
+    public CellStyle get(Spec spec) {
+        Workbook wb = workbook();
+        synchronized (wb) {
+            Integer index = styles.get(spec);
+            if (index == null) {
+                Spec key = spec.copy();
+                index = create(wb, key).getIndex() & 0xFFFF;
+                styles.put(key, index);
+            }
+            return wb.getCellStyleAt(index);
+        }
+    }
+
+    /**
+     * 日期样式 yyyy-mm-dd, 与 get(new Spec().dataFormat(...)) 得到的样式相同, 但不需要每次创建 Spec 和加锁查找
+     */
+    public CellStyle dateStyle() {
+        CellStyle style = dateStyle.get();
+        if (style == null) {
+            style = get(new Spec().dataFormat(ExcelUtils.DATE_FORMAT));
+            dateStyle = new WeakReference<>(style);
+        }
+        return style;
+    }
+
+    /**
+     * 日期时间样式 yyyy-mm-dd hh:mm:ss, 见 {@link #dateStyle()}
+     */
+    public CellStyle dateTimeStyle() {
+        CellStyle style = dateTimeStyle.get();
+        if (style == null) {
+            style = get(new Spec().dataFormat(ExcelUtils.DATE_TIME_FORMAT));
+            dateTimeStyle = new WeakReference<>(style);
+        }
+        return style;
+    }
+
+    public int size() {
+        synchronized (workbook()) {
+            return styles.size();
+        }
+    }
+
+    private Workbook workbook() {
+        Workbook wb = workbook.get();
+        if (wb == null) {
+            throw new RuntimeException("工作簿已被回收");
+        }
+        return wb;
+    }
+
+    private CellStyle create(Workbook wb, Spec spec) {
+        CellStyle style = wb.createCellStyle();
+        if (spec.fillForegroundColor != null) {
+            style.setFillForegroundColor(spec.fillForegroundColor);
+            style.setFillPattern(spec.fillPattern != null ? spec.fillPattern : FillPatternType.SOLID_FOREGROUND);
+        } else if (spec.fillPattern != null) {
+            style.setFillPattern(spec.fillPattern);
+        }
+        if (spec.dataFormat != null) {
+            style.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat(spec.dataFormat));
+        }
+        if (spec.borderTop != null) style.setBorderTop(spec.borderTop);
+        if (spec.borderBottom != null) style.setBorderBottom(spec.borderBottom);
+        if (spec.borderLeft != null) style.setBorderLeft(spec.borderLeft);
+        if (spec.borderRight != null) style.setBorderRight(spec.borderRight);
+        if (spec.alignment != null) style.setAlignment(spec.alignment);
+        if (spec.verticalAlignment != null) style.setVerticalAlignment(spec.verticalAlignment);
+        if (spec.wrapText != null) style.setWrapText(spec.wrapText);
+        if (spec.hasFont()) {
+            style.setFont(font(wb, spec));
+        }
+        return style;
+    }
+
+    private Font font(Workbook wb, Spec spec) {
+        List<Object> key = Arrays.asList(spec.bold, spec.italic, spec.fontColor, spec.fontHeightInPoints, spec.fontName);
+        Integer index = fonts.computeIfAbsent(key, _k -> {
+            Font font = wb.createFont();
+            if (spec.bold != null) font.setBold(spec.bold);
+            if (spec.italic != null) font.setItalic(spec.italic);
+            if (spec.fontColor != null) font.setColor(spec.fontColor);
+            if (spec.fontHeightInPoints != null) font.setFontHeightInPoints(spec.fontHeightInPoints);
+            if (spec.fontName != null) font.setFontName(spec.fontName);
+            return font.getIndexAsInt();
+        });
+        return wb.getFontAt(index);
+    }
+
+    /**
+     * 样式属性, 未设置的属性保持 POI 的默认值
+     */
+    public static class Spec {
+        private Short fillForegroundColor;
+        private FillPatternType fillPattern;
+        private String dataFormat;
+        private BorderStyle borderTop;
+        private BorderStyle borderBottom;
+        private BorderStyle borderLeft;
+        private BorderStyle borderRight;
+        private HorizontalAlignment alignment;
+        private VerticalAlignment verticalAlignment;
+        private Boolean wrapText;
+        private Boolean bold;
+        private Boolean italic;
+        private Short fontColor;
+        private Short fontHeightInPoints;
+        private String fontName;
+
+        /**
+         * 背景色, 未指定填充方式时为纯色填充
+         */
+        public Spec fill(IndexedColors color) {
+            this.fillForegroundColor = color.index;
+            return this;
+        }
+
+        public Spec fillPattern(FillPatternType fillPattern) {
+            this.fillPattern = fillPattern;
+            return this;
+        }
+
+        /**
+         * 数据格式, 如 yyyy-MM-dd
+         */
+        public Spec dataFormat(String dataFormat) {
+            this.dataFormat = dataFormat;
+            return this;
+        }
+
+        /**
+         * 四周边框
+         */
+        public Spec border(BorderStyle border) {
+            this.borderTop = border;
+            this.borderBottom = border;
+            this.borderLeft = border;
+            this.borderRight = border;
+            return this;
+        }
+
+        public Spec border(BorderStyle top, BorderStyle bottom, BorderStyle left, BorderStyle right) {
+            this.borderTop = top;
+            this.borderBottom = bottom;
+            this.borderLeft = left;
+            this.borderRight = right;
+            return this;
+        }
+
+        public Spec alignment(HorizontalAlignment alignment) {
+            this.alignment = alignment;
+            return this;
+        }
+
+        public Spec verticalAlignment(VerticalAlignment verticalAlignment) {
+            this.verticalAlignment = verticalAlignment;
+            return this;
+        }
+
+        public Spec wrapText(boolean wrapText) {
+            this.wrapText = wrapText;
+            return this;
+        }
+
+        public Spec bold(boolean bold) {
+            this.bold = bold;
+            return this;
+        }
+
+        public Spec italic(boolean italic) {
+            this.italic = italic;
+            return this;
+        }
+
+        public Spec fontColor(IndexedColors color) {
+            this.fontColor = color.index;
+            return this;
+        }
+
+        public Spec fontHeightInPoints(short fontHeightInPoints) {
+            this.fontHeightInPoints = fontHeightInPoints;
+            return this;
+        }
+
+        public Spec fontName(String fontName) {
+            this.fontName = fontName;
+            return this;
+        }
+
+        private boolean hasFont() {
+            return bold != null || italic != null || fontColor != null || fontHeightInPoints != null || fontName != null;
+        }
+
+        private Spec copy() {
+            Spec spec = new Spec();
+            spec.fillForegroundColor = fillForegroundColor;
+            spec.fillPattern = fillPattern;
+            spec.dataFormat = dataFormat;
+            spec.borderTop = borderTop;
+            spec.borderBottom = borderBottom;
+            spec.borderLeft = borderLeft;
+            spec.borderRight = borderRight;
+            spec.alignment = alignment;
+            spec.verticalAlignment = verticalAlignment;
+            spec.wrapText = wrapText;
+            spec.bold = bold;
+            spec.italic = italic;
+            spec.fontColor = fontColor;
+            spec.fontHeightInPoints = fontHeightInPoints;
+            spec.fontName = fontName;
+            return spec;
+        }
+
+        private List<Object> attributes() {
+            return Arrays.asList(fillForegroundColor, fillPattern, dataFormat, borderTop, borderBottom, borderLeft,
+                    borderRight, alignment, verticalAlignment, wrapText, bold, italic, fontColor, fontHeightInPoints, fontName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Spec && attributes().equals(((Spec) o).attributes());
+        }
+
+        @Override
+        public int hashCode() {
+            return attributes().hashCode();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 流式读取前的预扫描, 求出每个 sheet 页中未跳过的行里最后一个非空单元格的列, 与整本加载时 {@link SheetWalk#measure} 的规则一致
+ * dimension 记录只作为上限: 扫描到有非空单元格落在上限列的行后即停止扫描该页, 通常只需读取开头的几行;
+ * 没有该记录或上限列始终为空时才扫描整页
+ */
+class ColumnRanges implements SheetEventHandler {
+
+    private final List<Integer> walkSheets;
+    private final Map<Integer, Set<Integer>> skipRows;
+    private final Map<Integer, Set<Integer>> skipColumns;
+    private final Map<Integer, Integer> lastCols = new HashMap<>();
+
+    private int sheetIndex;
+    private Set<Integer> sheetSkipRows;
+    private Set<Integer> sheetSkipColumns;
+    private int upperBound;
+    private int lastCol;
+    private boolean skipRow;
+
+    ColumnRanges(List<Integer> walkSheets, Map<Integer, Set<Integer>> skipRows, Map<Integer, Set<Integer>> skipColumns) {
+        this.walkSheets = walkSheets;
+        this.skipRows = skipRows;
+        this.skipColumns = skipColumns;
+    }
+
+    /**
+     * sheet 页的最后一列, 没有非空单元格时为 -1
+     */
+    int lastCol(int sheetIndex) {
+        return lastCols.getOrDefault(sheetIndex, -1);
+    }
+
+    @Override
+    public void date1904(boolean date1904) {
+    }
+
+    @Override
+    public boolean startSheet(int sheetIndex, String sheetName) {
+        if (!walkSheets.contains(sheetIndex)) {
+            return false;
+        }
+        this.sheetIndex = sheetIndex;
+        this.sheetSkipRows = Utils.nullSafe(skipRows.get(sheetIndex));
+        this.sheetSkipColumns = Utils.nullSafe(skipColumns.get(sheetIndex));
+        this.upperBound = Integer.MAX_VALUE;
+        this.lastCol = -1;
+        return true;
+    }
+
+    @Override
+    public void dimension(int lastColNum) {
+        upperBound = lastColNum;
+    }
+
+    @Override
+    public void startRow(int rowNum) {
+        skipRow = sheetSkipRows.contains(rowNum);
+    }
+
+    @Override
+    public void numericCell(int colNum, double value, int formatIndex, String formatString) {
+        notEmpty(colNum);
+    }
+
+    @Override
+    public void stringCell(int colNum, String value) {
+        if (!Utils.isEmptyString(value)) {
+            notEmpty(colNum);
+        }
+    }
+
+    @Override
+    public void booleanCell(int colNum, boolean value) {
+        notEmpty(colNum);
+    }
+
+    @Override
+    public void errorCell(int colNum, byte errorCode) {
+        notEmpty(colNum);
+    }
+
+    private void notEmpty(int colNum) {
+        if (!skipRow && !sheetSkipColumns.contains(colNum)) {
+            lastCol = Math.max(lastCol, colNum);
+        }
+    }
+
+    @Override
+    public boolean endRow() {
+        return lastCol < upperBound;
+    }
+
+    @Override
+    public void endSheet() {
+        lastCols.put(sheetIndex, lastCol);
+    }
+}
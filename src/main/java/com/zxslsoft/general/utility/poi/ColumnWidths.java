@@ -0,0 +1,121 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 写入单元格时顺带估算列宽, 按字符数计算, 中日韩及全角字符按两个字符宽度计
+ * 不使用字体排版测量, 因此不依赖 AWT, 流式写出时同样可用
+ */
+class ColumnWidths {
+
+    private static final int MAX_WIDTH = 255 * 256;
+    private static final int PADDING = 2; // 左右留白, 单位为字符
+
+    private int[] widths = new int[16]; // 每列最长一行的显示宽度, 单位为字符
+    private final Map<Short, Integer> dateWidths = new HashMap<>(); // 样式下标 -> 日期格式的宽度, 不是日期格式时为 0
+    private final Object stylesLock; // 读取样式表时加的锁, 并行生成 sheet 页时为工作簿, 与其他线程新建样式互斥; 否则为 null
+
+    ColumnWidths(Object stylesLock) {
+        this.stylesLock = stylesLock;
+    }
+
+    void accept(int colIndex, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int max = ensure(colIndex);
+        int line = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                max = Math.max(max, line);
+                line = 0;
+            } else if (!Character.isLowSurrogate(c)) {
+                line += isWide(c) ? 2 : 1;
+            }
+        }
+        widths[colIndex] = Math.max(max, line);
+    }
+
+    // 以原生类型写入的单元格, 按类型估算宽度, 不转换为字符串
+    void accept(int colIndex, Cell cell) {
+        int width;
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                double value = cell.getNumericCellValue();
+                int dateWidth = DateUtil.isValidExcelDate(value) ? dateWidth(cell) : 0;
+                width = dateWidth > 0 ? dateWidth : numberWidth(value);
+                break;
+            case BOOLEAN:
+                width = 5;
+                break;
+            default:
+                return;
+        }
+        widths[colIndex] = Math.max(ensure(colIndex), width);
+    }
+
+    // 按样式判断是否为日期, 日期按格式的长度计; 同一样式只读取一次样式表
+    private int dateWidth(Cell cell) {
+        if (stylesLock == null) {
+            return dateWidth0(cell);
+        }
+        synchronized (stylesLock) {
+            return dateWidth0(cell);
+        }
+    }
+
+    private int dateWidth0(Cell cell) {
+        CellStyle style = cell.getCellStyle();
+        return dateWidths.computeIfAbsent(style.getIndex(), _k -> {
+            String format = style.getDataFormatString();
+            return DateUtil.isADateFormat(style.getDataFormat(), format) ? format.length() : 0;
+        });
+    }
+
+    // 整数部分的位数, 加上负号以及最多 3 位小数
+    private static int numberWidth(double value) {
+        double abs = Math.abs(value);
+        int width = abs < 1 ? 1 : (int) Math.log10(abs) + 1;
+        if (abs != Math.floor(abs)) {
+            width += 4;
+        }
+        return value < 0 ? width + 1 : width;
+    }
+
+    private int ensure(int colIndex) {
+        if (colIndex >= widths.length) {
+            int[] grown = new int[Math.max(widths.length * 2, colIndex + 1)];
+            System.arraycopy(widths, 0, grown, 0, widths.length);
+            widths = grown;
+        }
+        return widths[colIndex];
+    }
+
+    // 将估算的列宽设置到 sheet 页, 没有内容的列保持默认宽度
+    void apply(Sheet sheet, int maxColIndex) {
+        for (int i = 0; i <= maxColIndex && i < widths.length; i++) {
+            if (widths[i] > 0) {
+                sheet.setColumnWidth(i, Math.min(MAX_WIDTH, (widths[i] + PADDING) * 256));
+            }
+        }
+    }
+
+    // 东亚宽字符: 谚文、中日韩文字及标点、全角符号, 以及扩展平面的汉字(按高位代理计)
+    private static boolean isWide(char c) {
+        return (c >= 0x1100 && c <= 0x115F)
+                || (c >= 0x2E80 && c <= 0xA4CF)
+                || (c >= 0xAC00 && c <= 0xD7A3)
+                || (c >= 0xF900 && c <= 0xFAFF)
+                || (c >= 0xFE30 && c <= 0xFE4F)
+                || (c >= 0xFF00 && c <= 0xFF60)
+                || (c >= 0xFFE0 && c <= 0xFFE6)
+                || Character.isHighSurrogate(c);
+    }
+}
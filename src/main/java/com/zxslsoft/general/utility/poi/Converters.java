@@ -0,0 +1,302 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.NumberToTextConverter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * 导入时按字段类型查找的转换器
+ * 内置基本类型及其包装类型、BigDecimal、BigInteger、Character、Date、LocalDate、LocalDateTime 和枚举,
+ * 可以通过 {@link #register(Class, Converter)} 添加其他类型或覆盖内置的转换
+ */
+public final class Converters {
+
+    /**
+     * 单元格的值到字段类型的转换, 空字符串转换为 null(String 除外)
+     */
+    public interface Converter<T> {
+
+        T fromString(String str);
+
+        // 数值单元格直接按 double 转换, 不经过字符串; 日期类型按 1900 日期系统的序列号转换
+        // 导入时只有覆盖了此方法的转换器才会收到数值, 否则按单元格显示的文本(如 00123)调用 fromString
+        default T fromNumber(double value) {
+            return fromString(NumberToTextConverter.toText(value));
+        }
+
+        // 日期类型字段的数值单元格, value 已按工作簿的日期系统(1900 或 1904)换算; 默认换回 1900 日期系统的序列号
+        default T fromDateTime(LocalDateTime value) {
+            return fromNumber(DateUtil.getExcelDate(value));
+        }
+    }
+
+    private static final Map<Class<?>, Converter<?>> BUILT_IN = new HashMap<>();
+    private static final Map<Class<?>, Converter<?>> REGISTERED = new ConcurrentHashMap<>();
+
+    static {
+        builtIn(String.class, new Converter<String>() {
+            @Override
+            public String fromString(String str) {
+                return str;
+            }
+        });
+        builtIn(Integer.class, int.class, integral(Integer.class, Integer.MIN_VALUE, Integer.MAX_VALUE, value -> (int) value));
+        builtIn(Long.class, long.class, integral(Long.class, Long.MIN_VALUE, Long.MAX_VALUE, value -> value));
+        builtIn(Short.class, short.class, integral(Short.class, Short.MIN_VALUE, Short.MAX_VALUE, value -> (short) value));
+        builtIn(Byte.class, byte.class, integral(Byte.class, Byte.MIN_VALUE, Byte.MAX_VALUE, value -> (byte) value));
+        builtIn(Double.class, double.class, new Converter<Double>() {
+            @Override
+            public Double fromString(String str) {
+                return isBlank(str) ? null : parse(str, Double.class, Double::valueOf);
+            }
+
+            @Override
+            public Double fromNumber(double value) {
+                return value;
+            }
+        });
+        builtIn(Float.class, float.class, new Converter<Float>() {
+            @Override
+            public Float fromString(String str) {
+                return isBlank(str) ? null : parse(str, Float.class, Float::valueOf);
+            }
+
+            @Override
+            public Float fromNumber(double value) {
+                return (float) value;
+            }
+        });
+        builtIn(Boolean.class, boolean.class, new Converter<Boolean>() {
+            @Override
+            public Boolean fromString(String str) {
+                return isBlank(str) ? null : Boolean.valueOf(str.trim());
+            }
+
+            @Override
+            public Boolean fromNumber(double value) {
+                return value != 0;
+            }
+        });
+        builtIn(Character.class, char.class, str -> isBlank(str) ? null : str.charAt(0));
+        builtIn(BigDecimal.class, new Converter<BigDecimal>() {
+            @Override
+            public BigDecimal fromString(String str) {
+                return isBlank(str) ? null : parse(str, BigDecimal.class, BigDecimal::new);
+            }
+
+            @Override
+            public BigDecimal fromNumber(double value) {
+                // 整数不带小数位, 与从文本 "1" 转换的结果一致
+                return value == Math.rint(value) && Math.abs(value) < 0x1p53 ? BigDecimal.valueOf((long) value) : BigDecimal.valueOf(value);
+            }
+        });
+        builtIn(BigInteger.class, new Converter<BigInteger>() {
+            @Override
+            public BigInteger fromString(String str) {
+                return isBlank(str) ? null : parse(str, BigInteger.class, text -> new BigDecimal(text).toBigIntegerExact());
+            }
+
+            @Override
+            public BigInteger fromNumber(double value) {
+                if (value != Math.rint(value) || Double.isInfinite(value)) {
+                    throw cantConvert(NumberToTextConverter.toText(value), BigInteger.class);
+                }
+                return BigDecimal.valueOf(value).toBigIntegerExact();
+            }
+        });
+        builtIn(Date.class, new Converter<Date>() {
+            @Override
+            public Date fromString(String str) {
+                return isBlank(str) ? null : parseDate(str);
+            }
+
+            @Override
+            public Date fromNumber(double value) {
+                return DateUtil.getJavaDate(value);
+            }
+
+            @Override
+            public Date fromDateTime(LocalDateTime value) {
+                return Date.from(value.atZone(ZoneId.systemDefault()).toInstant());
+            }
+        });
+        builtIn(LocalDateTime.class, new Converter<LocalDateTime>() {
+            @Override
+            public LocalDateTime fromString(String str) {
+                return isBlank(str) ? null : DateUtil.toLocalDateTime(parseDate(str));
+            }
+
+            @Override
+            public LocalDateTime fromNumber(double value) {
+                return DateUtil.getLocalDateTime(value);
+            }
+
+            @Override
+            public LocalDateTime fromDateTime(LocalDateTime value) {
+                return value;
+            }
+        });
+        builtIn(LocalDate.class, new Converter<LocalDate>() {
+            @Override
+            public LocalDate fromString(String str) {
+                return isBlank(str) ? null : DateUtil.toLocalDateTime(parseDate(str)).toLocalDate();
+            }
+
+            @Override
+            public LocalDate fromNumber(double value) {
+                return DateUtil.getLocalDateTime(value).toLocalDate();
+            }
+
+            @Override
+            public LocalDate fromDateTime(LocalDateTime value) {
+                return value.toLocalDate();
+            }
+        });
+    }
+
+    /**
+     * 登记 type 的转换器, 覆盖内置的转换; 已编译的导入绑定不受影响
+     */
+    public static <T> void register(Class<T> type, Converter<T> converter) {
+        REGISTERED.put(type, converter);
+    }
+
+    public static void unregister(Class<?> type) {
+        REGISTERED.remove(type);
+    }
+
+    // 转换器是否覆盖了 fromNumber, 未覆盖时导入按单元格显示的文本转换
+    static boolean convertsNumbers(Converter<?> converter) {
+        try {
+            return converter.getClass().getMethod("fromNumber", double.class).getDeclaringClass() != Converter.class;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // type 是否登记了自定义的转换器
+    static boolean isRegistered(Class<?> type) {
+        return REGISTERED.containsKey(type);
+    }
+
+    /**
+     * 获取 type 的转换器, 不支持的类型返回的转换器在转换非空值时抛出异常
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Converter<T> get(Class<T> type) {
+        Converter<?> converter = REGISTERED.get(type);
+        if (converter == null) {
+            converter = BUILT_IN.get(type);
+        }
+        if (converter == null && type.isEnum()) {
+            converter = enumConverter(type);
+        }
+        if (converter == null) {
+            converter = str -> {
+                if (isBlank(str)) {
+                    return null;
+                }
+                throw cantConvert(str, type);
+            };
+        }
+        return (Converter<T>) converter;
+    }
+
+    private static <T> void builtIn(Class<T> type, Converter<T> converter) {
+        BUILT_IN.put(type, converter);
+    }
+
+    private static <T> void builtIn(Class<T> wrapper, Class<?> primitive, Converter<T> converter) {
+        BUILT_IN.put(wrapper, converter);
+        BUILT_IN.put(primitive, converter);
+    }
+
+    // 整数类型, 文本可以是 "1.0"、"1E3" 等形式, 但必须是范围内的整数
+    private static <T> Converter<T> integral(Class<T> type, long min, long max, LongFunction<T> box) {
+        return new Converter<T>() {
+            @Override
+            public T fromString(String str) {
+                if (isBlank(str)) {
+                    return null;
+                }
+                long value;
+                try {
+                    value = Long.parseLong(str.trim());
+                } catch (NumberFormatException e) {
+                    value = parse(str, type, text -> new BigDecimal(text).longValueExact());
+                }
+                if (value < min || value > max) {
+                    throw cantConvert(str, type);
+                }
+                return box.apply(value);
+            }
+
+            @Override
+            public T fromNumber(double value) {
+                // Long.MAX_VALUE 转为 double 后等于 2^63, 上界按 max + 1 比较, 与 ExcelUtils.getCellLong 一致
+                if (value != Math.rint(value) || value < min || value >= max + 1.0) {
+                    throw cantConvert(NumberToTextConverter.toText(value), type);
+                }
+                return box.apply((long) value);
+            }
+        };
+    }
+
+    // type 必须是枚举类型, 常量按 Object 处理, 不需要把 type 强转为 Enum 的原始类型
+    private static Converter<Object> enumConverter(Class<?> type) {
+        Enum<?>[] constants = (Enum<?>[]) type.getEnumConstants();
+        return str -> {
+            if (isBlank(str)) {
+                return null;
+            }
+            String text = str.trim();
+            for (Enum<?> constant : constants) {
+                if (constant.name().equals(text)) {
+                    return constant;
+                }
+            }
+            // 覆盖了 toString 的枚举也可以按显示值匹配
+            for (Enum<?> constant : constants) {
+                if (constant.toString().equals(text)) {
+                    return constant;
+                }
+            }
+            throw cantConvert(str, type);
+        };
+    }
+
+    private static <T> T parse(String str, Class<?> type, Function<String, T> parser) {
+        try {
+            return parser.apply(str.trim());
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw cantConvert(str, type);
+        }
+    }
+
+    private static Date parseDate(String str) {
+        Date date = DateUtils.parseTry(str.trim());
+        if (date == null) {
+            throw cantConvert(str, Date.class);
+        }
+        return date;
+    }
+
+    private static boolean isBlank(String str) {
+        return str == null || str.trim().isEmpty();
+    }
+
+    private static RuntimeException cantConvert(String str, Class<?> type) {
+        return new RuntimeException(String.format("%s can't convert to type %s", str, type.getName()));
+    }
+}
@@ -0,0 +1,114 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * DTO 上 @ExcelHeader 的元数据, 每个类型只解析一次
+ * 以 ClassValue 登记: 并发读取安全, 且缓存挂在 DTO 类自身上, 不会阻止其类加载器被卸载
+ */
+final class DtoMetadata {
+
+    private static final ClassValue<DtoMetadata> REGISTRY = new ClassValue<DtoMetadata>() {
+        @Override
+        protected DtoMetadata computeValue(Class<?> type) {
+            return new DtoMetadata(type);
+        }
+    };
+
+    private final Map<String, Field> headerMap; // 标题名 -> 字段
+    private final Map<String, Column> columns; // 标题名 -> 列描述
+    private final List<String> headers; // 按 order 排序后的标题
+    private final Map<String, Map<String, String>> valueMaps; // 由 @ValueMap 声明的值映射, 不含 valueMapClass
+
+    private DtoMetadata(Class<?> type) {
+        List<Column> columnList = new ArrayList<>();
+        for (Field field : ReflectUtils.getFieldsAnnotatedWith(type, ExcelHeader.class)) {
+            columnList.add(new Column(field));
+        }
+        // order 的默认值为 Integer.MAX_VALUE, 不能用相减比较; 排序是稳定的, order 相同时按字段声明顺序
+        columnList.sort(Comparator.comparingInt(Column::getOrder));
+
+        Map<String, Field> headerMap = new HashMap<>();
+        Map<String, Column> columns = new HashMap<>();
+        List<String> headers = new ArrayList<>();
+        Map<String, Map<String, String>> valueMaps = new HashMap<>();
+        for (Column column : columnList) {
+            String headerName = column.getName();
+            if (Utils.isEmptyString(headerName)) {
+                // 标题为空的字段不对应任何列, 与原先 Utils.getIdMap 跳过空键的行为一致
+                continue;
+            }
+            headerMap.put(headerName, column.getField());
+            if (columns.put(headerName, column) == null) {
+                headers.add(headerName);
+            }
+            ValueMap[] declared = column.getHeader().valueMap();
+            if (declared.length > 0) {
+                Map<String, String> valueMap = new HashMap<>();
+                for (ValueMap value : declared) {
+                    valueMap.put(value.key(), value.value());
+                }
+                valueMaps.put(headerName, Collections.unmodifiableMap(valueMap));
+            }
+        }
+        this.headerMap = Collections.unmodifiableMap(headerMap);
+        this.columns = Collections.unmodifiableMap(columns);
+        this.headers = Collections.unmodifiableList(headers);
+        this.valueMaps = Collections.unmodifiableMap(valueMaps);
+    }
+
+    static DtoMetadata of(Class<?> type) {
+        return REGISTRY.get(type);
+    }
+
+    Map<String, Field> getHeaderMap() {
+        return headerMap;
+    }
+
+    List<String> getHeaders() {
+        return headers;
+    }
+
+    Column getColumn(String headerName) {
+        return columns.get(headerName);
+    }
+
+    boolean isHidden(String headerName) {
+        Column column = columns.get(headerName);
+        return column != null && column.getHeader().hidden();
+    }
+
+    Map<String, String> getValueMap(String headerName) {
+        return valueMaps.get(headerName);
+    }
+
+    /**
+     * 一个带 @ExcelHeader 的字段, 注解的属性直接从注解实例读取
+     */
+    static final class Column {
+        private final Field field;
+        private final ExcelHeader header;
+
+        Column(Field field) {
+            this.field = field;
+            this.header = field.getAnnotation(ExcelHeader.class);
+        }
+
+        Field getField() {
+            return field;
+        }
+
+        ExcelHeader getHeader() {
+            return header;
+        }
+
+        String getName() {
+            return header.value();
+        }
+
+        int getOrder() {
+            return header.order();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddressList;
+
+import java.util.*;
+
+/**
+ * 批量标记错误单元格, 与 {@link ExcelUtils#setErrorTips(Workbook, String, Cell)} 效果相同
+ * 提示信息先收集起来, apply 时相同提示的单元格合并为一个 DataValidation, 同列连续的行合并为一个区域
+ * 数据校验的数量只与不同提示的个数有关, 与错误单元格的个数无关
+ */
+public class ErrorTips {
+
+    private final Workbook workbook;
+    // sheet 页 -> 提示信息 -> 列号 -> 行号
+    private final Map<Sheet, Map<String, Map<Integer, BitSet>>> tips = new LinkedHashMap<>();
+
+    public ErrorTips(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    public ErrorTips add(Cell cell, String tip) {
+        return add(cell, tip, IndexedColors.RED);
+    }
+
+    /**
+     * 立即为单元格设置背景色, 提示信息在 apply 时写入
+     */
+    public ErrorTips add(Cell cell, String tip, IndexedColors backgroundColor) {
+        if (Utils.isEmptyString(ExcelUtils.getCellValue(cell))) return this;
+        cell.setCellStyle(CellStyles.of(workbook).get(new CellStyles.Spec().fill(backgroundColor)));
+        tips.computeIfAbsent(cell.getSheet(), _k -> new LinkedHashMap<>())
+                .computeIfAbsent(tip, _k -> new TreeMap<>())
+                .computeIfAbsent(cell.getColumnIndex(), _k -> new BitSet())
+                .set(cell.getRowIndex());
+        return this;
+    }
+
+    /**
+     * 将收集的提示写入各 sheet 页, 之后清空
+     */
+    public void apply() {
+        tips.forEach((sheet, sheetTips) -> sheetTips.forEach((tip, columns) ->
+                ExcelUtils.setPrompt(sheet, toRanges(columns), tip)));
+        tips.clear();
+    }
+
+    // 同列连续的行合并为一个区域
+    private static CellRangeAddressList toRanges(Map<Integer, BitSet> columns) {
+        CellRangeAddressList ranges = new CellRangeAddressList();
+        columns.forEach((colNum, rows) -> {
+            int first = rows.nextSetBit(0);
+            while (first >= 0) {
+                int last = rows.nextClearBit(first) - 1;
+                ranges.addCellRangeAddress(first, colNum, last, colNum);
+                first = rows.nextSetBit(last + 1);
+            }
+        });
+        return ranges;
+    }
+}
@@ -1,14 +1,32 @@
 package com.zxslsoft.general.utility.poi;
 
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetVisibility;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static com.zxslsoft.general.utility.poi.Utils.*;
 
@@ -18,22 +36,35 @@ import static com.zxslsoft.general.utility.poi.Utils.*;
 public class ExcelExporter<T> {
 
     private List<String> sheetNames = new ArrayList<>();
-    private final Workbook workbook = new XSSFWorkbook();
+    private Workbook workbook;
     private final List<Sheet> sheets = new ArrayList<>();
-    private List<List<List<T>>> dataSet;
+    private List<SheetData<T>> dataSet;
     private CellValueFormat cellValueFormat = ExcelUtils.DEFAULT_SET_VALUE_MANEL;
     private CellFormat cellFormat = null;
     private SheetFormat sheetFormat = null;
     private final Map<Integer, Set<Integer>> hiddenColumns = new HashMap<>();
 
     private boolean autoResizeColumnWidth = true; // 是否自动调整列宽
+    private boolean streaming = false; // 是否使用 SXSSF 流式写出
+    private int rowAccessWindowSize = SXSSFWorkbook.DEFAULT_WINDOW_SIZE; // 流式写出时内存中保留的行数
+    private boolean compressTempFiles = true; // 流式写出时是否压缩临时文件
+    private boolean singlePass = false; // 是否在创建单元格的同时设置样式
+    private boolean parallel = false; // 是否并行生成各 sheet 页
+    private ExecutorService executorService; // 并行生成时使用的线程池, 未设置时每次导出临时创建
+    private int maxRowsPerSheet = 0; // 每个 sheet 页的最大行数, 超过时接续到新的 sheet 页, 0 表示 excel 的上限
+    private boolean repeatFirstRow = true; // 拆分 sheet 页或文件时, 是否在每一部分的开头重复首行(表头)
+    private long maxRowsPerFile = 0; // 每个文件的最大数据行数, 0 表示不限
+    private long maxBytesPerFile = 0; // 每个文件的估算字节数上限, 0 表示不限
 
 
     /**
      * 设置数据集， 适用于多个 sheet 页
      */
     public ExcelExporter<T> setDataSet(List<List<List<T>>> dataSet) {
-        this.dataSet = dataSet;
+        this.dataSet = new ArrayList<>();
+        for (List<List<T>> sheetData : nullSafe(dataSet)) {
+            this.dataSet.add(SheetData.of(sheetData));
+        }
         return this;
     }
 
@@ -42,18 +73,190 @@ public class ExcelExporter<T> {
      */
     public ExcelExporter<T> setSingleSheetDataSet(List<List<T>> dataSet) {
         this.dataSet = new ArrayList<>();
-        this.dataSet.add(dataSet);
+        this.dataSet.add(SheetData.of(dataSet));
+        return this;
+    }
+
+    /**
+     * 追加一个 sheet 页的数据来源, 可以是迭代器、Stream 或分页查询, 见 {@link SheetData}
+     * 按需拉取的数据源只遍历一次, 因此 cellFormat 在设置单元格值之后立即调用
+     */
+    public ExcelExporter<T> addSheetData(SheetData<T> sheetData) {
+        if (this.dataSet == null) {
+            this.dataSet = new ArrayList<>();
+        }
+        this.dataSet.add(sheetData);
         return this;
     }
 
     /**
-     * 自动调整列宽
+     * 直接导出带 @ExcelHeader 注解的 DTO, 第一行为标题, 列的顺序、隐藏列和值映射与导出模板一致
+     * 字段值按类型写入, 见 {@link ExcelUtils#SET_TYPED_VALUE}
+     */
+    public static <R> ExcelExporter<Object> ofDtos(Class<R> clazz, Iterable<R> dtos) {
+        return new ExcelExporter<Object>().setCellValueFormat(ExcelUtils.SET_TYPED_VALUE).addDtoSheetData(clazz, dtos);
+    }
+
+    public static <R> ExcelExporter<Object> ofDtos(Class<R> clazz, Stream<R> dtos) {
+        return new ExcelExporter<Object>().setCellValueFormat(ExcelUtils.SET_TYPED_VALUE).addDtoSheetData(clazz, dtos);
+    }
+
+    /**
+     * 追加一个由 DTO 组成的 sheet 页, 每行是按列读取 DTO 字段的视图, 不复制为中间的 List
+     * 传入 List 时可以多次遍历, 其余 Iterable 按需拉取
+     */
+    public <R> ExcelExporter<T> addDtoSheetData(Class<R> clazz, Iterable<R> dtos) {
+        ExportPlan<R> plan = ExportPlan.compile(clazz);
+        if (dtos instanceof List) {
+            List<R> list = (List<R>) dtos;
+            return addDtoSheetData(plan, SheetData.of(new AbstractList<List<Object>>() {
+                @Override
+                public List<Object> get(int index) {
+                    return index == 0 ? new ArrayList<>(plan.getHeaders()) : plan.row(list.get(index - 1));
+                }
+
+                @Override
+                public int size() {
+                    return list.size() + 1;
+                }
+            }));
+        }
+        Iterator<R> iterator = dtos.iterator();
+        Iterator<List<Object>> rows = new Iterator<List<Object>>() {
+            private boolean header = true;
+
+            @Override
+            public boolean hasNext() {
+                return header || iterator.hasNext();
+            }
+
+            @Override
+            public List<Object> next() {
+                if (header) {
+                    header = false;
+                    return new ArrayList<>(plan.getHeaders());
+                }
+                return plan.row(iterator.next());
+            }
+        };
+        return addDtoSheetData(plan, SheetData.of(rows));
+    }
+
+    /**
+     * 追加一个由 DTO 组成的 sheet 页, 该 sheet 页写完后关闭 Stream
+     */
+    public <R> ExcelExporter<T> addDtoSheetData(Class<R> clazz, Stream<R> dtos) {
+        ExportPlan<R> plan = ExportPlan.compile(clazz);
+        Stream<List<Object>> rows = Stream.concat(Stream.of(new ArrayList<>(plan.getHeaders())), dtos.map(plan::row));
+        return addDtoSheetData(plan, SheetData.of(rows));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ExcelExporter<T> addDtoSheetData(ExportPlan<?> plan, SheetData<Object> sheetData) {
+        int sheetIndex = this.dataSet == null ? 0 : this.dataSet.size();
+        if (!plan.getHiddenColumns().isEmpty()) {
+            setHiddenColumns(sheetIndex, plan.getHiddenColumns().toArray(new Integer[0]));
+        }
+        return addSheetData((SheetData<T>) (SheetData<?>) sheetData);
+    }
+
+    /**
+     * 自动调整列宽, 列宽按写入时各列最长的内容估算, 见 {@link ColumnWidths}
      */
     public ExcelExporter<T> setAutoResizeColumnWidth(boolean autoResize) {
         this.autoResizeColumnWidth = autoResize;
         return this;
     }
 
+    /**
+     * 使用 SXSSF 流式写出, 内存中只保留最近 rowAccessWindowSize 行, 其余的行写入临时文件
+     * 流式写出时 cellFormat 在设置单元格值之后立即调用, 而不是整页写完后再读取一遍;
+     * sheetFormat 调用时已写出的行不能再通过 sheet.getRow 读取
+     */
+    public ExcelExporter<T> setStreaming(int rowAccessWindowSize) {
+        if (rowAccessWindowSize <= 0) {
+            throw new RuntimeException("rowAccessWindowSize 必须大于 0");
+        }
+        this.streaming = true;
+        this.rowAccessWindowSize = rowAccessWindowSize;
+        return this;
+    }
+
+    /**
+     * 在创建单元格、设置值之后立即调用 cellFormat, 整个 sheet 页只遍历一遍
+     * 默认在整页的值写完后再遍历一遍设置样式, 此时 cellFormat 可以读取到之后行的单元格
+     */
+    public ExcelExporter<T> setSinglePass(boolean singlePass) {
+        this.singlePass = singlePass;
+        return this;
+    }
+
+    /**
+     * 并行生成各 sheet 页, 需要同时调用 {@link #setStreaming(int)}: 每个 sheet 页的行写入各自的临时文件, 最后合并为一个 xlsx
+     * sheet 页和绘图层按顺序创建, 之后每个 sheet 页的数据在各自的线程中写入, cellValueFormat、cellFormat、sheetFormat 会被并发调用
+     * 单元格的值与顺序生成时一致; {@link ExcelUtils#SET_TYPED_VALUE} 的日期样式在开始前创建, {@link ExcelUtils#SET_PIC} 的图片
+     * 在各 sheet 页写完后按顺序添加, 因此多次导出的结果相同
+     * 回调中新建样式请使用 {@link CellStyles}, 其余读写样式表或工作簿的操作需要在 synchronized (workbook) 中进行;
+     * 回调中新建的样式编号取决于各线程的先后, 需要每次输出完全相同时请在顺序生成时使用
+     * 有 sheet 页失败时取消其余 sheet 页, 等待已开始的写入结束后抛出异常
+     */
+    public ExcelExporter<T> setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * 并行生成 sheet 页时使用的线程池, 由调用方负责关闭
+     */
+    public ExcelExporter<T> setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * 流式写出时是否压缩临时文件, 默认压缩
+     */
+    public ExcelExporter<T> setCompressTempFiles(boolean compressTempFiles) {
+        this.compressTempFiles = compressTempFiles;
+        return this;
+    }
+
+    /**
+     * 每个 sheet 页最多写入的行数(含重复的首行), 超过时接续到新的 sheet 页, 名称为 原名称_2、原名称_3 ..., 跳过已被占用的名称
+     * 未设置时按 xlsx 的上限 1048576 行拆分; 拆分出的 sheet 页紧跟在原 sheet 页之后, 隐藏列和回调中的 sheetIndex 与原 sheet 页相同
+     */
+    public ExcelExporter<T> setMaxRowsPerSheet(int maxRowsPerSheet) {
+        if (maxRowsPerSheet < 2 || maxRowsPerSheet > SpreadsheetVersion.EXCEL2007.getMaxRows()) {
+            throw new RuntimeException("maxRowsPerSheet 必须在 2 到 " + SpreadsheetVersion.EXCEL2007.getMaxRows() + " 之间");
+        }
+        this.maxRowsPerSheet = maxRowsPerSheet;
+        return this;
+    }
+
+    /**
+     * 拆分 sheet 页或文件时, 是否在每一部分的开头重复数据源的首行(表头), 默认重复
+     */
+    public ExcelExporter<T> setRepeatFirstRow(boolean repeatFirstRow) {
+        this.repeatFirstRow = repeatFirstRow;
+        return this;
+    }
+
+    /**
+     * 每个文件最多写入的数据行数(不含重复的首行), 超过时接续到下一个文件, 需要使用 {@link #exportParts} 或 {@link #exportZip} 导出
+     */
+    public ExcelExporter<T> setMaxRowsPerFile(long maxRowsPerFile) {
+        this.maxRowsPerFile = maxRowsPerFile;
+        return this;
+    }
+
+    /**
+     * 每个文件的字节数上限, 按单元格文本长度粗略估算(未压缩), 实际文件通常小得多; 达到上限后接续到下一个文件
+     */
+    public ExcelExporter<T> setMaxBytesPerFile(long maxBytesPerFile) {
+        this.maxBytesPerFile = maxBytesPerFile;
+        return this;
+    }
+
     /**
      * 设置多少个 sheet 的名字
      */
@@ -63,7 +266,7 @@ public class ExcelExporter<T> {
     }
 
     /**
-     * 决定如何设置单元格的值
+     * 决定如何设置单元格的值, 数字、日期需要以原生类型写入时使用 {@link ExcelUtils#SET_TYPED_VALUE}
      */
     public ExcelExporter<T> setCellValueFormat(CellValueFormat setCellValue) {
         this.cellValueFormat = setCellValue;
@@ -95,83 +298,486 @@ public class ExcelExporter<T> {
      * 基础的数据集设置好了后，导出为 byte[] 数据
      */
     public byte[] export() {
-        int sheetIndex = -1;
-        for (List<List<T>> sheetData : this.dataSet) {
-            sheetIndex++;
-            if (sheetIndex < sheetNames.size()) {
-                sheets.add(workbook.createSheet(sheetNames.get(sheetIndex)));
-            } else {
-                sheets.add(workbook.createSheet());
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        export(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 直接写出到输出流, 如 servlet 的响应流, 不在内存中保留整个文件; 不会关闭 out
+     */
+    public void export(OutputStream out) {
+        if (parallel && !streaming) {
+            throw new RuntimeException("并行生成 sheet 页需要先调用 setStreaming");
+        }
+        if (maxRowsPerFile > 0 || maxBytesPerFile > 0) {
+            throw new RuntimeException("设置了每个文件的上限时请使用 exportParts 或 exportZip");
+        }
+        try {
+            if (workbook == null) {
+                workbook = newWorkbook();
             }
-            Sheet sheet = sheets.get(sheetIndex);
-            sheet.createDrawingPatriarch();
-            int rowIndex = 0;
-            int maxColIndex = 0;
-            for (List<T> rowList : nullSafe(sheetData)) {
-                Row row = sheet.createRow(rowIndex);
-                int colIndex = 0;
-                for (Object cellValue : nullSafe(rowList)) {
-                    Cell cell = row.createCell(colIndex);
-                    String ret = this.cellValueFormat.accept(sheetIndex, rowIndex, colIndex,
-                            workbook, sheet, row, cell, cellValue);
-                    if (!isEmptyString(ret)) {
-//                        if (Utils.isNumber(ret)){
-//                            cell.setCellValue( ret.contains(".")?Double.parseDouble(ret):Integer.parseInt(ret));
-//                        }else {
-//                            cell.setCellValue(ret);
-//                        }
-                        cell.setCellValue(ret);
+            writeSheets();
+            workbook.write(out);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            nullSafe(dataSet).forEach(SheetData::close);
+            dispose();
+        }
+    }
+
+    /**
+     * 写出到文件, 文件已存在时覆盖
+     */
+    public void export(Path path) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            export(out);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 写出到通道, 不会关闭 channel
+     */
+    public void export(WritableByteChannel channel) {
+        try {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            export(out);
+            out.flush();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 按 {@link #setMaxRowsPerFile(long)}、{@link #setMaxBytesPerFile(long)} 拆分为多个 xlsx 文件
+     * 数据按顺序读取并逐个生成文件, 已生成的文件在线程池中写出, 与下一个文件的生成同时进行
+     * partSink 根据文件序号(从 0 开始)提供输出流, 写完后由这里关闭; 返回文件个数
+     */
+    public int exportParts(IntFunction<OutputStream> partSink) {
+        List<SheetCursor> cursors = new ArrayList<>();
+        for (SheetData<T> sheetData : nullSafe(dataSet)) {
+            cursors.add(new SheetCursor(sheetData));
+        }
+        ExecutorService executor = this.executorService != null ? this.executorService
+                : Utils.newDefaultExecutor(Runtime.getRuntime().availableProcessors());
+        List<ExcelExporter<T>> parts = new ArrayList<>();
+        List<ParallelTask<Object>> tasks = new ArrayList<>();
+        try {
+            int sheetIndex = 0;
+            while (sheetIndex < cursors.size() || parts.isEmpty()) {
+                ExcelExporter<T> part = newPart();
+                parts.add(part);
+                FileBudget budget = new FileBudget(maxRowsPerFile, maxBytesPerFile);
+                List<List<Shard>> partShards = new ArrayList<>();
+                while (sheetIndex < cursors.size() && budget.hasRoom()) {
+                    SheetCursor cursor = cursors.get(sheetIndex);
+                    partShards.add(part.writeSheet(sheetIndex, part.createSheet(sheetIndex), cursor, budget));
+                    if (cursor.hasNext()) {
+                        break;
                     }
-                    maxColIndex = Math.max(maxColIndex, colIndex);
-                    colIndex++;
+                    cursor.data.close();
+                    sheetIndex++;
                 }
+                part.orderShards(partShards);
+                int partIndex = parts.size() - 1;
+                tasks.add(ParallelTask.submit(executor, () -> {
+                    try (OutputStream out = partSink.apply(partIndex)) {
+                        part.workbook.write(out);
+                    } finally {
+                        // 写出后即删除临时文件, 不必等到所有文件都写完
+                        part.dispose();
+                    }
+                    return null;
+                }));
+            }
+            for (ParallelTask<Object> task : tasks) {
+                task.get();
+            }
+            return parts.size();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // 失败时取消尚未写出的文件并等待正在写出的文件, 之后释放所有文件的工作簿, 包括还未提交或未开始写出的
+            tasks.forEach(ParallelTask::cancelAndAwait);
+            parts.forEach(ExcelExporter::dispose);
+            nullSafe(dataSet).forEach(SheetData::close);
+            if (executor != this.executorService) {
+                executor.shutdown();
+            }
+        }
+    }
 
-                rowIndex++;
+    /**
+     * 拆分为多个 xlsx 文件并打包为一个 zip, 文件名为 partName_1.xlsx、partName_2.xlsx ...; 不会关闭 out
+     * 各文件先并行写入临时文件, 再按顺序放入 zip
+     */
+    public void exportZip(OutputStream out, String partName) {
+        Map<Integer, Path> partFiles = new ConcurrentHashMap<>();
+        try {
+            int partCount = exportParts(partIndex -> {
+                try {
+                    Path partFile = Files.createTempFile("excel-part-", ".xlsx");
+                    partFiles.put(partIndex, partFile);
+                    return new BufferedOutputStream(Files.newOutputStream(partFile));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ZipOutputStream zip = new ZipOutputStream(out);
+            for (int partIndex = 0; partIndex < partCount; partIndex++) {
+                zip.putNextEntry(new ZipEntry(partName + "_" + (partIndex + 1) + ".xlsx"));
+                Files.copy(partFiles.get(partIndex), zip);
+                zip.closeEntry();
             }
+            zip.finish();
+            zip.flush();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Path partFile : partFiles.values()) {
+                partFile.toFile().delete();
+            }
+        }
+    }
 
-            if (!isEmptyObject(cellFormat)) {
-                rowIndex = 0;
-                for (List<T> rowList : nullSafe(sheetData)) {
-                    Row row = sheet.getRow(rowIndex);
-                    int colIndex = 0;
-                    for (Object cellValue : nullSafe(rowList)) {
-                        Cell cell = row.getCell(colIndex);
-
-                        if (hiddenColumns.get(sheetIndex) == null || !hiddenColumns.get(sheetIndex).contains(colIndex)) {
-                            cellFormat.accept(sheetIndex, rowIndex, colIndex,
-                                    workbook, sheet, row, cell, cellValue);
-                        }
+    private Workbook newWorkbook() {
+        return streaming ? new SXSSFWorkbook(null, rowAccessWindowSize, compressTempFiles) : new XSSFWorkbook();
+    }
 
-                        colIndex++;
-                    }
-                    rowIndex++;
+    // 删除流式写出的临时文件, 可以重复调用
+    private void dispose() {
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+    }
+
+    // 拆分文件时每个文件使用相同的设置, 各自的工作簿
+    private ExcelExporter<T> newPart() {
+        ExcelExporter<T> part = new ExcelExporter<>();
+        part.sheetNames = this.sheetNames;
+        part.cellValueFormat = this.cellValueFormat;
+        part.cellFormat = this.cellFormat;
+        part.sheetFormat = this.sheetFormat;
+        part.hiddenColumns.putAll(this.hiddenColumns);
+        part.autoResizeColumnWidth = this.autoResizeColumnWidth;
+        part.streaming = this.streaming;
+        part.rowAccessWindowSize = this.rowAccessWindowSize;
+        part.compressTempFiles = this.compressTempFiles;
+        part.singlePass = this.singlePass;
+        part.maxRowsPerSheet = this.maxRowsPerSheet;
+        part.repeatFirstRow = this.repeatFirstRow;
+        part.workbook = part.newWorkbook();
+        return part;
+    }
+
+    // sheet 页和绘图层在工作簿级别登记, 需要同步
+    private Sheet createSheet(int sheetIndex) {
+        synchronized (workbook) {
+            Sheet sheet = sheetIndex < sheetNames.size() ? workbook.createSheet(sheetNames.get(sheetIndex)) : workbook.createSheet();
+            sheet.createDrawingPatriarch();
+            sheets.add(sheet);
+            return sheet;
+        }
+    }
+
+    // 超过行数上限后接续的 sheet 页, 名称为 原名称_2、原名称_3 ...; 跳过已有的以及 setSheetNames 中之后才创建的名称
+    private Sheet createShardSheet(String baseName, int shardNo) {
+        synchronized (workbook) {
+            String name;
+            do {
+                String suffix = "_" + shardNo++;
+                name = baseName.substring(0, Math.min(baseName.length(), 31 - suffix.length())) + suffix;
+            } while (workbook.getSheet(name) != null || isReservedSheetName(name));
+            Sheet sheet = workbook.createSheet(name);
+            sheet.createDrawingPatriarch();
+            return sheet;
+        }
+    }
+
+    // sheet 页名称不区分大小写
+    private boolean isReservedSheetName(String name) {
+        for (String sheetName : sheetNames) {
+            if (name.equalsIgnoreCase(sheetName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 拆分出的 sheet 页紧跟在原 sheet 页之后
+    private void orderShards(List<List<Shard>> allShards) {
+        if (allShards.stream().allMatch(shards -> shards.size() < 2)) {
+            return;
+        }
+        int position = 0;
+        for (List<Shard> shards : allShards) {
+            for (Shard shard : shards) {
+                workbook.setSheetOrder(shard.sheet.getSheetName(), position++);
+            }
+        }
+    }
+
+    private void writeSheets() {
+        // sheet 页按顺序创建, 之后各 sheet 页的数据可以并行写入
+        List<SheetData<T>> sheetDataList = nullSafe(this.dataSet);
+        for (int sheetIndex = 0; sheetIndex < sheetDataList.size(); sheetIndex++) {
+            createSheet(sheetIndex);
+        }
+        List<List<Shard>> allShards = new ArrayList<>();
+        if (!parallel || sheetDataList.size() < 2) {
+            for (int sheetIndex = 0; sheetIndex < sheetDataList.size(); sheetIndex++) {
+                allShards.add(writeSheet(sheetIndex, sheets.get(sheetIndex), new SheetCursor(sheetDataList.get(sheetIndex)), null));
+            }
+            orderShards(allShards);
+            return;
+        }
+        // 工作簿级别的登记按顺序进行, 输出与线程的先后无关: SET_TYPED_VALUE 的日期样式在开始前创建,
+        // SET_PIC 的图片先暂存, 各 sheet 页写完后按 sheet 页的顺序添加
+        CellStyles styles = CellStyles.of(workbook);
+        styles.dateStyle();
+        styles.dateTimeStyle();
+        Pictures pictures = Pictures.of(workbook);
+        pictures.defer();
+        ExecutorService executor = this.executorService != null ? this.executorService : Utils.newDefaultExecutor(sheetDataList.size());
+        List<ParallelTask<List<Shard>>> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < sheetDataList.size(); i++) {
+                int sheetIndex = i;
+                tasks.add(ParallelTask.submit(executor, () -> writeSheet(sheetIndex, sheets.get(sheetIndex),
+                        new SheetCursor(sheetDataList.get(sheetIndex)) {
+                            @Override
+                            List<T> next() {
+                                // 有任务失败后不再继续写入
+                                if (Thread.currentThread().isInterrupted()) {
+                                    throw new CancellationException();
+                                }
+                                return super.next();
+                            }
+                        }, null)));
+            }
+            for (ParallelTask<List<Shard>> task : tasks) {
+                List<Shard> shards = task.get();
+                for (Shard shard : shards) {
+                    pictures.flush(shard.sheet);
                 }
+                allShards.add(shards);
+            }
+            orderShards(allShards);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // 有任务失败时取消其余任务, 并等待已开始的任务结束, 之后才能释放工作簿; 线程池可能由调用方提供
+            tasks.forEach(ParallelTask::cancelAndAwait);
+            pictures.endDefer();
+            if (executor != this.executorService) {
+                executor.shutdownNow();
+            }
+        }
+    }
 
-            if (hiddenColumns.get(sheetIndex) != null) {
-                hiddenColumns.get(sheetIndex).forEach(ite -> {
-                    sheet.setColumnHidden(ite, true);
-                });
+    /**
+     * 写入一个数据源, 并行生成时每个数据源在各自的线程中调用
+     * 超过每页行数上限时接续到新的 sheet 页; 拆分文件时 budget 用尽即返回, 剩余的行由下一个文件接续
+     */
+    private List<Shard> writeSheet(int sheetIndex, Sheet sheet, SheetCursor cursor, FileBudget budget) {
+        // 流式写出、拆分文件或数据源只能遍历一次时, 样式在同一遍中设置
+        boolean formatInPass = singlePass || streaming || budget != null || !cursor.data.isRepeatable();
+        boolean hasCellFormat = !isEmptyObject(cellFormat);
+        Set<Integer> hidden = nullSafe(hiddenColumns.get(sheetIndex));
+        int limit = maxRowsPerSheet > 0 ? maxRowsPerSheet : SpreadsheetVersion.EXCEL2007.getMaxRows();
+        boolean formatNow = hasCellFormat && formatInPass;
+
+        List<Shard> shards = new ArrayList<>();
+        Shard shard = new Shard(sheet);
+        shards.add(shard);
+        if (cursor.firstRow != null) {
+            // 从上一个文件接续的数据源
+            writeRow(sheetIndex, shard, cursor.firstRow, formatNow, hidden);
+        }
+        while ((budget == null || budget.hasRoom()) && cursor.hasNext()) {
+            boolean header = repeatFirstRow && cursor.firstRow == null; // 会被重复的首行不计入文件的行数
+            List<T> rowList = cursor.next();
+            if (shard.rowCount >= limit) {
+                shard = new Shard(createShardSheet(sheet.getSheetName(), shards.size() + 1));
+                shards.add(shard);
+                if (cursor.firstRow != null) {
+                    writeRow(sheetIndex, shard, cursor.firstRow, formatNow, hidden);
+                }
+            }
+            long bytes = writeRow(sheetIndex, shard, rowList, formatNow, hidden);
+            if (budget != null) {
+                budget.rows += header ? 0 : 1;
+                budget.bytes += bytes;
             }
+        }
 
-            if (autoResizeColumnWidth) {
-                for (int i = 0; i <= maxColIndex; i++) {
-                    sheet.autoSizeColumn(i);
-                    sheet.setColumnWidth(i, Math.min(255 * 256, sheet.getColumnWidth(i) * 17 / 10));
-//                    sheet.setColumnWidth(i, sheet.getColumnWidth(i) * 17 / 10);
+        if (hasCellFormat && !formatInPass) {
+            // 按第一遍相同的拆分方式再遍历一遍
+            int shardIndex = 0;
+            int rowIndex = 0;
+            List<T> firstRow = null;
+            for (List<T> rowList : cursor.data) {
+                if (rowIndex >= limit) {
+                    shardIndex++;
+                    rowIndex = 0;
+                    if (repeatFirstRow && firstRow != null) {
+                        formatRow(sheetIndex, shards.get(shardIndex).sheet, rowIndex++, firstRow, hidden);
+                    }
                 }
+                if (firstRow == null) {
+                    firstRow = nullSafe(rowList);
+                }
+                formatRow(sheetIndex, shards.get(shardIndex).sheet, rowIndex++, rowList, hidden);
+            }
+        }
+        if (!cursor.hasNext()) {
+            cursor.data.close();
+        }
+
+        for (Shard finished : shards) {
+            hidden.forEach(ite -> {
+                finished.sheet.setColumnHidden(ite, true);
+            });
+
+            if (finished.columnWidths != null) {
+                finished.columnWidths.apply(finished.sheet, finished.maxColIndex);
             }
 
             if (sheetFormat != null) {
-                sheetFormat.accept(workbook, sheet, sheetData.size() - 1, maxColIndex);
+                sheetFormat.accept(workbook, finished.sheet, finished.rowCount - 1, finished.maxColIndex);
+            }
+        }
+        return shards;
+    }
+
+    // 在 shard 的末尾写入一行, 返回粗略估算的字节数
+    private long writeRow(int sheetIndex, Shard shard, List<T> rowList, boolean formatNow, Set<Integer> hidden) {
+        Sheet sheet = shard.sheet;
+        int rowIndex = shard.rowCount++;
+        Row row = sheet.createRow(rowIndex);
+        long bytes = 0;
+        int colIndex = 0;
+        for (Object cellValue : nullSafe(rowList)) {
+            Cell cell = row.createCell(colIndex);
+            String ret = this.cellValueFormat.accept(sheetIndex, rowIndex, colIndex,
+                    workbook, sheet, row, cell, cellValue);
+            if (!isEmptyString(ret)) {
+//                if (Utils.isNumber(ret)){
+//                    cell.setCellValue( ret.contains(".")?Double.parseDouble(ret):Integer.parseInt(ret));
+//                }else {
+//                    cell.setCellValue(ret);
+//                }
+                cell.setCellValue(ret);
+                if (shard.columnWidths != null) {
+                    shard.columnWidths.accept(colIndex, ret);
+                }
+                bytes += ret.length() + CELL_BYTES;
+            } else {
+                if (shard.columnWidths != null) {
+                    // cellValueFormat 直接以原生类型写入的值
+                    shard.columnWidths.accept(colIndex, cell);
+                }
+                bytes += CELL_BYTES * 2;
+            }
+            if (formatNow && !hidden.contains(colIndex)) {
+                cellFormat.accept(sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, cellValue);
             }
+            shard.maxColIndex = Math.max(shard.maxColIndex, colIndex);
+            colIndex++;
         }
+        return bytes;
+    }
 
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-            workbook.write(byteArrayOutputStream);
-            return byteArrayOutputStream.toByteArray();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private void formatRow(int sheetIndex, Sheet sheet, int rowIndex, List<T> rowList, Set<Integer> hidden) {
+        Row row = sheet.getRow(rowIndex);
+        int colIndex = 0;
+        for (Object cellValue : nullSafe(rowList)) {
+            Cell cell = row.getCell(colIndex);
+            if (!hidden.contains(colIndex)) {
+                cellFormat.accept(sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, cellValue);
+            }
+            colIndex++;
+        }
+    }
+
+    private static final int CELL_BYTES = 10; // 估算文件大小时每个单元格 xml 标签的字节数
+
+    // 一个数据源写入的一个 sheet 页
+    private class Shard {
+        final Sheet sheet;
+        final ColumnWidths columnWidths = autoResizeColumnWidth ? new ColumnWidths(parallel ? workbook : null) : null;
+        int rowCount;
+        int maxColIndex;
+
+        Shard(Sheet sheet) {
+            this.sheet = sheet;
+        }
+    }
+
+    // 按顺序读取一个数据源, 拆分 sheet 页或文件时记住首行以便重复
+    private class SheetCursor {
+        final SheetData<T> data;
+        private Iterator<List<T>> rows;
+        List<T> firstRow; // 设置了重复首行时, 已读取过的首行
+
+        SheetCursor(SheetData<T> data) {
+            this.data = data;
+        }
+
+        boolean hasNext() {
+            if (rows == null) {
+                rows = data.iterator();
+            }
+            return rows.hasNext();
+        }
+
+        List<T> next() {
+            hasNext();
+            List<T> row = rows.next();
+            if (repeatFirstRow && firstRow == null) {
+                firstRow = new ArrayList<>(nullSafe(row));
+            }
+            return row;
+        }
+    }
+
+    // 一个文件剩余可写入的行数和字节数, 重复的首行不计入
+    private static class FileBudget {
+        final long maxRows;
+        final long maxBytes;
+        long rows;
+        long bytes;
+
+        FileBudget(long maxRows, long maxBytes) {
+            this.maxRows = maxRows;
+            this.maxBytes = maxBytes;
+        }
+
+        boolean hasRoom() {
+            return (maxRows <= 0 || rows < maxRows) && (maxBytes <= 0 || bytes < maxBytes);
         }
     }
 
@@ -180,6 +786,15 @@ public class ExcelExporter<T> {
      * 通过一个DTO来导出模板
      */
     public static <R> byte[] exportDtoTemplate(Class<R> clazz) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        exportDtoTemplate(clazz, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 通过一个DTO来导出模板, 直接写出到输出流; 不会关闭 out
+     */
+    public static <R> void exportDtoTemplate(Class<R> clazz, OutputStream out) {
         List<String> headers = ExcelUtils.getDtoHeaders(clazz);
         Map<String, Map<String, String>> optional = ExcelUtils.getHeaderOptionalValue(clazz);
 
@@ -203,8 +818,10 @@ public class ExcelExporter<T> {
             }
         }
 
-        return new ExcelExporter<Object>()
+        XSSFSheet[] lookupSheets = new XSSFSheet[1]; // 本次导出的下拉选项 sheet 页, 用到时才创建
+        new ExcelExporter<Object>()
                 .setSingleSheetDataSet(content)
+                .setSinglePass(true)
                 .setCellFormat((int sheetIndex, int rowIndex, int colIndex,
                                 Workbook workbook, Sheet sheet, Row row, Cell cell, Object value) -> {
                     if (rowIndex != 0) return;
@@ -212,7 +829,27 @@ public class ExcelExporter<T> {
                     if (null != optional) {
                         Map<String, String> options = optional.get(headerName);
                         if (!Utils.isEmpty(options)) {
-                            ExcelUtils.setOptionalList((XSSFSheet) sheet, options.keySet(), 1, 500, colIndex, colIndex);
+                            if (ExcelUtils.fitsExplicitList(options.keySet())) {
+                                ExcelUtils.setOptionalList((XSSFSheet) sheet, options.keySet(), 1, 500, colIndex, colIndex);
+                            } else {
+                                // 超过显式列表的长度限制, 下拉选项写入隐藏的 sheet 页, 以区域引用
+                                if (lookupSheets[0] == null) {
+                                    lookupSheets[0] = createLookupSheet(workbook);
+                                }
+                                XSSFSheet lookupSheet = lookupSheets[0];
+                                int lookupCol = lookupSheet.getRow(0) == null ? 0 : lookupSheet.getRow(0).getLastCellNum();
+                                int lookupRow = 0;
+                                for (String option : options.keySet()) {
+                                    Row optionRow = lookupSheet.getRow(lookupRow);
+                                    if (optionRow == null) {
+                                        optionRow = lookupSheet.createRow(lookupRow);
+                                    }
+                                    optionRow.createCell(lookupCol).setCellValue(option);
+                                    lookupRow++;
+                                }
+                                ExcelUtils.setOptionalList((XSSFSheet) sheet, 1, 500, colIndex, colIndex,
+                                        lookupSheet, 0, lookupRow - 1, lookupCol);
+                            }
                         }
                     }
 
@@ -220,7 +857,20 @@ public class ExcelExporter<T> {
                         sheet.setColumnHidden(colIndex, true);
                     }
                 })
-                .export();
+                .export(out);
+    }
+
+    private static final String LOOKUP_SHEET_NAME = "options";
+
+    // 存放下拉选项的 sheet 页, 设置为 VERY_HIDDEN, 在 Excel 中无法取消隐藏; 名称已被占用时依次加 _2、_3 ...
+    static XSSFSheet createLookupSheet(Workbook workbook) {
+        String name = LOOKUP_SHEET_NAME;
+        for (int n = 2; workbook.getSheet(name) != null; n++) {
+            name = LOOKUP_SHEET_NAME + "_" + n;
+        }
+        XSSFSheet lookupSheet = (XSSFSheet) workbook.createSheet(name);
+        workbook.setSheetVisibility(workbook.getSheetIndex(lookupSheet), SheetVisibility.VERY_HIDDEN);
+        return lookupSheet;
     }
 
     public interface CellValueFormat {
@@ -1,22 +1,35 @@
 package com.zxslsoft.general.utility.poi;
 
 import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
-public class ExcelImporter {
+public class ExcelImporter implements Closeable {
     private Workbook workbook;
 
+    // 流式读取的文件, 以及该文件是否为输入流落地的临时文件
+    private File streamingFile;
+    private boolean streamingTempFile;
+
     // 设置需要跳过的 sheet 页 和 某个 sheet 页行
     private final Map<Integer, Set<Integer>> skipRows = new HashMap<>();
     private final Map<Integer, Set<Integer>> skipColumns = new HashMap<>();
-    private final Map<Integer, List<Integer>> notEmptyCells = new HashMap<>();
     private List<Integer> walkSheets = Utils.asList(0);
+    // 并行导入多个 sheet 页时使用的线程池, 未设置时每次并行导入临时创建
+    private ExecutorService executorService;
 
 
     /**
@@ -32,6 +45,7 @@ public class ExcelImporter {
     public ExcelImporter setWorkbook(InputStream inputStream) {
         try {
             ZipSecureFile.setMinInflateRatio(-1.0d);
+            close();
             this.workbook = WorkbookFactory.create(inputStream);
             return this;
         } catch (Exception e) {
@@ -44,6 +58,11 @@ public class ExcelImporter {
         return this;
     }
 
+    public ExcelImporter setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
     public ExcelImporter setSkipRows(Integer sheetNum, Integer... nums) {
         this.skipRows.put(sheetNum, Utils.asSet(nums));
         return this;
@@ -56,6 +75,7 @@ public class ExcelImporter {
 
     public ExcelImporter setWorkbook(File file) {
         try {
+            close();
             this.workbook = WorkbookFactory.create(file);
             return this;
         } catch (Exception e) {
@@ -63,14 +83,50 @@ public class ExcelImporter {
         }
     }
 
+    /**
+     * 以流式方式读取 xlsx 或 xls, 不会一次性把整个工作簿加载到内存, 适合行数很多的文件
+     * 回调中的 workbook、sheet、row 均为只保留当前行(以及第 0 行标题)的临时对象, 对其修改不会写回原文件
+     */
+    public ExcelImporter setStreamingWorkbook(File file) {
+        deleteStreamingTempFile();
+        this.workbook = null;
+        this.streamingFile = file;
+        return this;
+    }
+
+    /**
+     * 以流式方式读取, 输入流会先写入临时文件
+     * 临时文件在 convert 系列方法结束时删除, 之后不能再次读取; 只调用 walkThrough 时需调用 {@link #close()} 删除
+     */
+    public ExcelImporter setStreamingWorkbook(InputStream inputStream) {
+        try {
+            File file = File.createTempFile("poi-utility-import", ".tmp");
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            setStreamingWorkbook(file);
+            this.streamingTempFile = true;
+            return this;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 流式读取时返回 null
+     */
     public Workbook getWorkbook(){
         return this.workbook;
     }
 
     public static byte[] getWorkbookBytes(Workbook workbook){
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-            workbook.write(byteArrayOutputStream);
-            return byteArrayOutputStream.toByteArray();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        writeWorkbook(workbook, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    // 将工作簿直接写出到输出流, 不会关闭 out
+    public static void writeWorkbook(Workbook workbook, OutputStream out) {
+        try {
+            workbook.write(out);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -78,109 +134,196 @@ public class ExcelImporter {
 
     // 遍历所有行, 遍历方式为 一行一行地遍历
     public ExcelImporter walkThrough(ExcelWalker walker) {
-        Iterator<Sheet> sheetIterator = this.workbook.sheetIterator();
+        walk(walkSheets, null, walker);
+        return this;
+    }
 
-        int sheetIndex = -1;
+    /**
+     * 并行遍历 walkSheets 中的 sheet 页, 每个 sheet 页在线程池中单独遍历, 互不共享遍历状态
+     * walker 会被多个线程同时调用, 需要自行保证线程安全
+     * 只有流式读取 xlsx 时并行; 整本加载的工作簿不是线程安全的, 流式读取 xls 时记录流只能顺序读取, 这两种情况按顺序遍历
+     */
+    public ExcelImporter parallelWalkThrough(ExcelWalker walker) {
+        parallelCollect((sheets, parts, sink) -> walk(sheets, parts, walker));
+        return this;
+    }
 
-        while (sheetIterator.hasNext()) {
-            sheetIndex++;
-            Sheet sheet = sheetIterator.next();
-            if(!walkSheets.contains(sheetIndex)){
-                continue;
-            }
-            Iterator<Row> rowIterator = sheet.rowIterator();
+    // parts 为并行流式读取 xlsx 时各任务共用的共享字符串和样式, 其余情况为 null
+    private void walk(List<Integer> sheets, XlsxStreamReader.SharedParts parts, ExcelWalker walker) {
+        if (streamingFile == null && workbook == null) {
+            throw new RuntimeException("未设置工作簿, 或输入流的临时文件已在上一次转换结束时删除");
+        }
+        if (streamingFile != null) {
+            streamingWalkThrough(sheets, parts, walker);
+        } else {
+            workbookWalkThrough(sheets, walker);
+        }
+    }
 
-            while (rowIterator.hasNext()) {
-                Row row = rowIterator.next();
-                List<Integer> notEmptyCols = ExcelUtils.getNotEmptyColIndex(row, skipColumns.computeIfAbsent(sheetIndex, _k -> new HashSet<>(0)));
-                if (!notEmptyCols.isEmpty() && !skipRows.computeIfAbsent(sheetIndex, _k -> new HashSet<>(0)).contains(row.getRowNum())) {
-                    notEmptyCells.put(row.getRowNum(), notEmptyCols);
+    // 先预扫描确定各页列的范围(通常只读开头几行), 再逐行回调
+    private void streamingWalkThrough(List<Integer> sheets, XlsxStreamReader.SharedParts parts, ExcelWalker walker) {
+        ColumnRanges columnRanges = new ColumnRanges(sheets, skipRows, skipColumns);
+        try (StreamingWalk streamingWalk = new StreamingWalk(sheets, skipRows, skipColumns, columnRanges, walker)) {
+            FileMagic fileMagic = streamingFileMagic();
+            if (FileMagic.OOXML.equals(fileMagic)) {
+                if (parts == null) {
+                    parts = XlsxStreamReader.loadSharedParts(streamingFile);
                 }
+                XlsxStreamReader.read(streamingFile, parts, columnRanges);
+                XlsxStreamReader.read(streamingFile, parts, streamingWalk);
+            } else if (FileMagic.OLE2.equals(fileMagic)) {
+                XlsStreamReader.read(streamingFile, columnRanges);
+                XlsStreamReader.read(streamingFile, streamingWalk);
+            } else {
+                throw new RuntimeException("不支持的文件格式: " + fileMagic);
             }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private FileMagic streamingFileMagic() {
+        ZipSecureFile.setMinInflateRatio(-1.0d);
+        try {
+            return FileMagic.valueOf(streamingFile);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            int maxRow = 0;
-            int maxCol = 0;
+    // 单元格只遍历一次, 不会为空位置创建单元格; 之前的预扫描只读取各行末尾的单元格以确定列的范围
+    private void workbookWalkThrough(List<Integer> sheets, ExcelWalker walker) {
+        try (BlankCells blankCells = new BlankCells()) {
+            Iterator<Sheet> sheetIterator = this.workbook.sheetIterator();
 
-            for(Integer k : notEmptyCells.keySet()){
-                maxRow = Math.max(maxRow, k);
-                maxCol = Math.max(Utils.max(notEmptyCells.get(k)), maxCol);
-            }
+            int sheetIndex = -1;
 
-            for (int rowNum = 0; rowNum <= maxRow; rowNum++) {
-                Set<Integer> skipSet = skipRows.get(sheetIndex);
-                if (!Utils.isEmpty(skipSet) && skipSet.contains(rowNum)) {
-                    continue;
-                }
-                Row row = sheet.getRow(rowNum);
-                if(row == null){
+            while (sheetIterator.hasNext()) {
+                sheetIndex++;
+                Sheet sheet = sheetIterator.next();
+                if (!sheets.contains(sheetIndex)) {
                     continue;
                 }
-                for (int colNum = 0; colNum <= maxCol; colNum++) {
-                    if (skipColumns.get(sheetIndex) != null && skipColumns.get(sheetIndex).contains(colNum)) {
-                        continue;
+                SheetWalk sheetWalk = new SheetWalk(workbook, sheet, skipRows.get(sheetIndex), skipColumns.get(sheetIndex), walker) {
+                    @Override
+                    Row emptyRow(int rowNum) {
+                        return sheet.getRow(rowNum);
+                    }
+
+                    @Override
+                    Cell blankCell(Row row, int colNum) {
+                        return blankCells.get(row, colNum);
                     }
-                    Cell cell = row.getCell(colNum);
-                    if (cell == null) {
-                        cell = row.createCell(colNum);
+
+                    @Override
+                    void release(Row row) {
+                        blankCells.release(row);
                     }
-                    walker.accept(workbook, sheet, row, cell);
+                };
+                // 先按行的 lastCellNum 确定列的范围, 再逐行回调
+                for (Row row : sheet) {
+                    sheetWalk.measure(row);
+                }
+                Iterator<Row> rowIterator = sheet.rowIterator();
+                while (rowIterator.hasNext()) {
+                    sheetWalk.accept(rowIterator.next());
                 }
             }
         }
+    }
 
-        return this;
+    // 将获取到的值转换为实体类, consumer 在每行的字段设置完毕后调用
+    public <T> List<T> convertToList(Class<T> type, Consumer<T> consumer) {
+        try {
+            List<T> dtoList = new ArrayList<>();
+            skipHeaderRow(walkSheets);
+            walkDtos(type, ExcelUtils.getHeaderOptionalValue(type), walkSheets, null, dto -> {
+                dtoList.add(dto);
+                consumer.accept(dto);
+            });
+            return dtoList;
+        } finally {
+            deleteStreamingTempFileAfterConvert();
+        }
     }
 
-    // 判断value 是否下拉选择框形式， 将值映射为实体的值
-    private String convertValue(Map<String, Map<String, String>> headerOptionalValue, String headerName, String value) {
-        Map<String, String> stringStringMap = headerOptionalValue.get(headerName);
-        if (stringStringMap != null && stringStringMap.size() > 0) {
-            String mapValue = stringStringMap.get(value);
-            if (Utils.isEmptyString(mapValue)) {
-                throw new RuntimeException("不存在键值映射关系!");
+    /**
+     * 将获取到的值按批转换为实体类, 每凑满 batchSize 行交给 sink 处理一次, 最后不足一批的也会交给 sink
+     * 不保留全部结果, 配合 {@link #setStreamingWorkbook(File)} 可以边解析边批量入库
+     */
+    public <T> ExcelImporter convertInBatches(Class<T> type, int batchSize, Consumer<List<T>> sink) {
+        if (batchSize <= 0) {
+            throw new RuntimeException("batchSize 必须大于 0");
+        }
+        try {
+            ValueContainer<List<T>> batch = new ValueContainer<>(new ArrayList<>(batchSize));
+            skipHeaderRow(walkSheets);
+            walkDtos(type, ExcelUtils.getHeaderOptionalValue(type), walkSheets, null, dto -> {
+                batch.get().add(dto);
+                if (batch.get().size() >= batchSize) {
+                    sink.accept(batch.get());
+                    batch.set(new ArrayList<>(batchSize));
+                }
+            });
+            if (!batch.get().isEmpty()) {
+                sink.accept(batch.get());
             }
-            return mapValue;
-        } else {
-            return value;
+            return this;
+        } finally {
+            deleteStreamingTempFileAfterConvert();
         }
+    }
 
+    /**
+     * 并行地将 walkSheets 中的每个 sheet 页转换为实体类, 结果按 sheet 页的顺序合并
+     * 与 {@link #parallelWalkThrough} 一样只有流式读取 xlsx 时并行
+     */
+    public <T> List<T> parallelConvertToList(Class<T> type) {
+        try {
+            skipHeaderRow(walkSheets);
+            // 下拉键值映射在提交任务前取好, 各任务共用
+            Map<String, Map<String, String>> headerOptionalValue = ExcelUtils.getHeaderOptionalValue(type);
+            return parallelCollect((sheets, parts, sink) -> walkDtos(type, headerOptionalValue, sheets, parts, sink));
+        } finally {
+            deleteStreamingTempFileAfterConvert();
+        }
     }
 
-    // 将获取到的值转换为实体类
-    public <T> List<T> convertToList(Class<T> type, Consumer<T> consumer) {
-        List<T> dtoList = new ArrayList<>();
+    // 逐行转换为实体类, 一行的字段全部设置完毕后才交给 rowSink
+    // headerOptionalValue 为下拉的字段以及下拉键值映射
+    private <T> void walkDtos(Class<T> type, Map<String, Map<String, String>> headerOptionalValue,
+                              List<Integer> sheets, XlsxStreamReader.SharedParts parts, Consumer<T> rowSink) {
         try {
             ValueContainer<Integer> currentRow = new ValueContainer<>();
-            ValueContainer<T> dto = new ValueContainer<>(ReflectUtils.newInstance(type));
-            // 获取下拉的字段 以及下拉键值映射
-            Map<String, Map<String, String>> headerOptionalValue = ExcelUtils.getHeaderOptionalValue(type);
-            this.setSkipRows(0, 0)
-                    .walkThrough((workbook, sheet, row, cell) -> {
-                        try {
-                            if (currentRow.get() == null) {
-                                currentRow.set(row.getRowNum());
-                                dtoList.add(dto.get());
-                                consumer.accept(dto.get());
-                            }
-                            if (currentRow.get() != row.getRowNum()) {
-                                dto.set(ReflectUtils.newInstance(type));
-                                dtoList.add(dto.get());
-                                consumer.accept(dto.get());
-                                currentRow.set(row.getRowNum());
-                            }
-
-                            String value = new DataFormatter().formatCellValue(cell);
-                            String headerName = new DataFormatter().formatCellValue(
-                                    sheet.getRow(0).getCell(cell.getColumnIndex()));
-                            if (headerOptionalValue != null) {
-                                value = convertValue(headerOptionalValue, headerName, value);
-                            }
-                            ExcelUtils.setValue(dto.get(), headerName, value);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
+            ValueContainer<T> dto = new ValueContainer<>();
+            // 标题行与字段的绑定, 每个 sheet 页编译一次
+            ValueContainer<Sheet> bindingSheet = new ValueContainer<>();
+            ValueContainer<ImportBinding<T>> binding = new ValueContainer<>();
+            walk(sheets, parts, (workbook, sheet, row, cell) -> {
+                try {
+                    boolean newSheet = bindingSheet.get() != sheet;
+                    if (newSheet) {
+                        binding.set(ImportBinding.compile(type, sheet.getRow(0), headerOptionalValue));
+                        bindingSheet.set(sheet);
+                    }
+                    if (newSheet || currentRow.get() != row.getRowNum()) {
+                        if (dto.get() != null) {
+                            rowSink.accept(dto.get());
                         }
-                    });
-            return dtoList;
+                        dto.set(binding.get().newInstance());
+                        currentRow.set(row.getRowNum());
+                    }
+
+                    binding.get().setValue(dto.get(), cell);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            if (dto.get() != null) {
+                rowSink.accept(dto.get());
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -192,35 +335,60 @@ public class ExcelImporter {
         });
     }
 
+    // consumer 在每行的值设置完毕后调用
     public List<Map<String, String>> convertToMap(Consumer<Map<String, String>> consumer) {
-        List<Map<String, String>> dtoList = new ArrayList<>();
         try {
+            List<Map<String, String>> dtoList = new ArrayList<>();
+            skipHeaderRow(walkSheets);
+            walkMaps(walkSheets, null, map -> {
+                dtoList.add(map);
+                consumer.accept(map);
+            });
+            return dtoList;
+        } finally {
+            deleteStreamingTempFileAfterConvert();
+        }
+    }
+
+    /**
+     * 并行地将 walkSheets 中的每个 sheet 页转换为 Map, 结果按 sheet 页的顺序合并
+     * 与 {@link #parallelWalkThrough} 一样只有流式读取 xlsx 时并行
+     */
+    public List<Map<String, String>> parallelConvertToMap() {
+        try {
+            skipHeaderRow(walkSheets);
+            return parallelCollect(this::walkMaps);
+        } finally {
+            deleteStreamingTempFileAfterConvert();
+        }
+    }
+
+    private void walkMaps(List<Integer> sheets, XlsxStreamReader.SharedParts parts, Consumer<Map<String, String>> rowSink) {
+        try {
+            ValueContainer<Sheet> currentSheet = new ValueContainer<>();
             ValueContainer<Integer> currentRow = new ValueContainer<>();
-            ValueContainer<Map<String, String>> dto = new ValueContainer<>(new HashMap<>());
-            this.setSkipRows(0, 0)
-                    .walkThrough((workbook, sheet, row, cell) -> {
-                        try {
-                            if (currentRow.get() == null) {
-                                currentRow.set(row.getRowNum());
-
-                                dtoList.add(dto.get());
-                                consumer.accept(dto.get());
-                            }
-                            if (currentRow.get() != row.getRowNum()) {
-                                dto.set(new HashMap<>());
-                                dtoList.add(dto.get());
-                                consumer.accept(dto.get());
-                                currentRow.set(row.getRowNum());
-                            }
-
-                            String headerName = ExcelUtils.getCellValue(sheet.getRow(0).getCell(cell.getColumnIndex()));
-                            String value = ExcelUtils.getCellValue(cell);
-                            dto.get().put(headerName, value);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
+            ValueContainer<Map<String, String>> dto = new ValueContainer<>();
+            walk(sheets, parts, (workbook, sheet, row, cell) -> {
+                try {
+                    if (currentSheet.get() != sheet || currentRow.get() != row.getRowNum()) {
+                        if (dto.get() != null) {
+                            rowSink.accept(dto.get());
                         }
-                    });
-            return dtoList;
+                        dto.set(new HashMap<>());
+                        currentSheet.set(sheet);
+                        currentRow.set(row.getRowNum());
+                    }
+
+                    String headerName = ExcelUtils.getCellValue(sheet.getRow(0).getCell(cell.getColumnIndex()));
+                    String value = ExcelUtils.getCellValue(cell);
+                    dto.get().put(headerName, value);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            if (dto.get() != null) {
+                rowSink.accept(dto.get());
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -231,8 +399,97 @@ public class ExcelImporter {
         });
     }
 
+    // 每个 sheet 页的第 0 行为标题行, 转换时跳过, 需在遍历开始前调用
+    private void skipHeaderRow(List<Integer> sheets) {
+        for (Integer sheetIndex : sheets) {
+            skipRows.computeIfAbsent(sheetIndex, _k -> new HashSet<>()).add(0);
+        }
+    }
+
+    /**
+     * 流式读取 xlsx 时每个 sheet 页一个任务, 各自收集结果后按 sheet 页的顺序合并, 共享字符串和样式只解析一次, 作为参数交给各任务
+     * 整本加载的工作簿不是线程安全的, 流式读取 xls 时记录流只能从头顺序读取, 这两种情况按顺序一次遍历所有 sheet 页
+     * 有任务失败时取消其余任务, 并等待已开始的任务结束后才返回, 之后才能删除临时文件
+     */
+    private <R> List<R> parallelCollect(SheetTask<R> sheetTask) {
+        List<Integer> sheets = new ArrayList<>(new TreeSet<>(walkSheets));
+        FileMagic fileMagic = streamingFile == null ? null : streamingFileMagic();
+        if (!FileMagic.OOXML.equals(fileMagic)) {
+            List<R> ans = new ArrayList<>();
+            sheetTask.accept(sheets, null, ans::add);
+            return ans;
+        }
+        XlsxStreamReader.SharedParts parts = XlsxStreamReader.loadSharedParts(streamingFile);
+        ExecutorService executor = this.executorService != null ? this.executorService : Utils.newDefaultExecutor(sheets.size());
+        List<ParallelTask<List<R>>> tasks = new ArrayList<>();
+        try {
+            for (Integer sheetIndex : sheets) {
+                tasks.add(ParallelTask.submit(executor, () -> {
+                    List<R> sheetResult = new ArrayList<>();
+                    sheetTask.accept(Utils.asList(sheetIndex), parts, row -> {
+                        // 被取消后不再继续转换
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new CancellationException();
+                        }
+                        sheetResult.add(row);
+                    });
+                    return sheetResult;
+                }));
+            }
+            List<R> ans = new ArrayList<>();
+            for (ParallelTask<List<R>> task : tasks) {
+                ans.addAll(task.get());
+            }
+            return ans;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // 正常结束时各任务均已完成, 这里不会等待
+            tasks.forEach(ParallelTask::cancelAndAwait);
+            if (executor != this.executorService) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // 一组 sheet 页的遍历任务, parts 为并行流式读取 xlsx 时共用的共享字符串和样式, 其余情况为 null
+    private interface SheetTask<R> {
+        void accept(List<Integer> sheets, XlsxStreamReader.SharedParts parts, Consumer<R> sink);
+    }
+
+    /**
+     * 删除流式读取时落地的临时文件
+     */
+    @Override
+    public void close() {
+        deleteStreamingTempFile();
+        this.streamingFile = null;
+    }
+
+    // 输入流落地的临时文件在转换结束后即删除, 调用方未调用 close 时也不会遗留
+    private void deleteStreamingTempFileAfterConvert() {
+        if (streamingTempFile) {
+            deleteStreamingTempFile();
+            this.streamingFile = null;
+        }
+    }
+
+    private void deleteStreamingTempFile() {
+        if (streamingTempFile && streamingFile != null) {
+            streamingFile.delete();
+        }
+        streamingTempFile = false;
+    }
+
     /**
-     * 判断有
+     * 逐个单元格的回调, 每行访问的列范围相同, 行中不存在的位置以空白单元格代替
+     * 空白单元格是临时对象: 整本加载时其 getSheet()、getRow() 不是回调参数中的 sheet、row, 对其写入不会保存到工作簿,
+     * 需要修改工作簿时请通过 row.createCell 创建; 流式读取时回调中的所有对象都是临时的
      */
     public interface ExcelWalker {
         void accept(Workbook workbook, Sheet sheet, Row row, Cell cell);
@@ -3,30 +3,31 @@ package com.zxslsoft.general.utility.poi;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddressList;
 import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.NumberToTextConverter;
 import org.apache.poi.xssf.usermodel.XSSFDataValidation;
 import org.apache.poi.xssf.usermodel.XSSFDataValidationConstraint;
 import org.apache.poi.xssf.usermodel.XSSFDataValidationHelper;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
 
 import static com.zxslsoft.general.utility.poi.Utils.*;
 
 public class ExcelUtils {
 
-    static Map<Class<?>, Map<String, Field>> headerNameCache = new HashMap<>();
-
     public static String getCellPosition(Cell cell){
         return CellReference.convertNumToColString(cell.getColumnIndex()) + (cell.getRow().getRowNum() + 1);
     }
 
+    // 每个单元格单独添加一个提示, 大量标记时使用 ErrorTips
     public static void setErrorTips(Workbook workbook, String str, Cell r, IndexedColors backgroundColor){
         if(Utils.isEmptyString(getCellValue(r))) return;
-        CellStyle cellStyle = workbook.createCellStyle();
-        cellStyle.setFillForegroundColor(backgroundColor.index);
-        cellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        r.setCellStyle(cellStyle);
+        r.setCellStyle(CellStyles.of(workbook).get(new CellStyles.Spec().fill(backgroundColor)));
         ExcelUtils.setPrompt(r, str);
     }
 
@@ -47,11 +48,9 @@ public class ExcelUtils {
         Map<String, Field> nameMap = getHeaderMap(dto.getClass());
         Field field = nameMap.get(headerName);
         if (null != field) {
-            try {
-                field.setAccessible(true);
-                field.set(dto, DataConverter.convertString(value, field.getType()));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+            Object converted = DataConverter.convertString(value, field.getType());
+            if (converted != null || !field.getType().isPrimitive()) {
+                FieldAccessor.of(field).set(dto, converted);
             }
         }
     }
@@ -72,26 +71,32 @@ public class ExcelUtils {
         return ans;
     }
 
-    // 获取DTO对应excel标题的字段
-    @SuppressWarnings("all")
+    // 判断单元格是否为空, 不经过 DataFormatter 格式化
+    public static boolean isEmptyCell(Cell cell) {
+        if (cell == null) {
+            return true;
+        }
+        switch (cell.getCellType()) {
+            case BLANK:
+                return true;
+            case STRING:
+                return Utils.isEmptyString(cell.getStringCellValue());
+            case FORMULA:
+                return CellType.STRING.equals(cell.getCachedFormulaResultType())
+                        && Utils.isEmptyString(cell.getStringCellValue());
+            default:
+                return false;
+        }
+    }
+
+    // 获取DTO对应excel标题的字段, 按 order 排序
     public static <T> List<String> getDtoHeaders(Class<T> clazz) {
-        Map<String, Field> nameMap = getHeaderMap(clazz);
-        List<String> ans = new ArrayList<>(nameMap.keySet());
-        ans.sort((k1, k2) -> {
-            int k1_order = (int) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, nameMap.get(k1), "order");
-            int k2_order = (int) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, nameMap.get(k2), "order");
-            return k1_order - k2_order;
-        });
-        return ans;
+        return new ArrayList<>(DtoMetadata.of(clazz).getHeaders());
     }
 
     // 获取excel标题和DTO对应的字段
-    private static <T> Map<String, Field> getHeaderMap(Class<T> clazz) {
-        return headerNameCache.computeIfAbsent(clazz, k -> {
-            List<Field> fields = ReflectUtils.getFieldsAnnotatedWith(clazz, ExcelHeader.class);
-            return Utils.getIdMap(fields, field ->
-                    (String) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, field, "value"));
-        });
+    static <T> Map<String, Field> getHeaderMap(Class<T> clazz) {
+        return DtoMetadata.of(clazz).getHeaderMap();
     }
 
     // 为excel某列设置下拉选项值
@@ -109,10 +114,26 @@ public class ExcelUtils {
         sheet.addValidationData(validation);
     }
 
+    // 显式列表的下拉选项总长度不能超过 255 个字符, 选项本身也不能包含逗号
+    public static boolean fitsExplicitList(Collection<String> options) {
+        int length = Math.max(0, options.size() - 1);
+        for (String option : options) {
+            if (option.contains(",")) {
+                return false;
+            }
+            length += option.length();
+            if (length > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 下拉选项引用 sourceSheet 中 sourceCol 列的 sourceFirstRow 到 sourceLastRow 行
     public static void setOptionalList(XSSFSheet sheet, int firstRow, int lastRow, int firstCol, int lastCol,
                                        XSSFSheet sourceSheet, Integer sourceFirstRow, Integer sourceLastRow, Integer sourceCol) {
         String colStr = CellReference.convertNumToColString(sourceCol);
-        String strFormula = sourceSheet.getSheetName() + "!$" + colStr + "$" + (sourceFirstRow + 1) + ":$" + colStr + "$" + (sourceLastRow + 1);
+        String strFormula = "'" + sourceSheet.getSheetName().replace("'", "''") + "'!$" + colStr + "$" + (sourceFirstRow + 1) + ":$" + colStr + "$" + (sourceLastRow + 1);
         XSSFDataValidationConstraint constraint = new XSSFDataValidationConstraint(DataValidationConstraint.ValidationType.LIST, strFormula);
         CellRangeAddressList regions = new CellRangeAddressList(firstRow, lastRow, firstCol, lastCol);
         DataValidationHelper help = new XSSFDataValidationHelper(sheet);
@@ -120,48 +141,54 @@ public class ExcelUtils {
         sheet.addValidationData(validation);
     }
 
+    private static volatile ValueMapCache valueMapCache = new TtlValueMapCache();
+
+    // 替换 valueMapClass 值映射的缓存实现
+    public static void setValueMapCache(ValueMapCache cache) {
+        valueMapCache = Objects.requireNonNull(cache);
+    }
+
+    public static ValueMapCache getValueMapCache() {
+        return valueMapCache;
+    }
+
     // 设置 DTO 某个字段 和 excel 某列的值映射关系
-    @SuppressWarnings("all")
+    // valueMapClass 声明的映射经由 ValueMapCache 获取, 实现类覆盖 cacheMillis 后在缓存期内不会重复加载
     public static <T> Map<String, Map<String, String>> getHeaderOptionalValue(Class<T> clazz) {
-        Map<String, Field> headerMap = getHeaderMap(clazz);
-        if (null == headerMap) return null;
+        DtoMetadata metadata = DtoMetadata.of(clazz);
 
         Map<String, Map<String, String>> ans = new HashMap<>();
-        headerMap.forEach((k, v) -> {
-            ValueMap[] valueMaps = (ValueMap[]) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, v, "valueMap");
-            Class valueMapClass = (Class) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, v, "valueMapClass");
-            if (!Utils.isEmpty(valueMaps)) {
-                for (ValueMap value : valueMaps) {
-                    ans.computeIfAbsent(k, key -> new HashMap<>()).put(value.key(), value.value());
-                }
+        for (String k : metadata.getHeaders()) {
+            Map<String, String> valueMap = metadata.getValueMap(k);
+            Class<? extends ValueMapInterface> valueMapClass = metadata.getColumn(k).getHeader().valueMapClass();
+            if (valueMap != null) {
+                ans.put(k, valueMap);
             } else if (!ValueMapInterface.class.equals(valueMapClass)) {
-                try {
-                    ValueMapInterface o = ReflectUtils.newInstance(valueMapClass);
-                    ans.put(k, o.getValueMap());
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
+                ans.put(k, valueMapCache.get(valueMapClass));
             }
-        });
+        }
         if (Utils.isEmpty(ans)) return null;
 
         return ans;
     }
 
-    @SuppressWarnings("all")
     public static boolean isHiddenColumn(String headerName, Class<?> clazz) {
-        return (boolean) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, getHeaderMap(clazz).get(headerName), "hidden");
+        return DtoMetadata.of(clazz).isHidden(headerName);
     }
 
     // 导出excel模板时， 为其设置默认值
     public static List<Object> getColumnDefaultValues(Class<?> clazz, String headerName) {
-        Map<String, Field> headerMap = getHeaderMap(clazz);
+        DtoMetadata.Column column = DtoMetadata.of(clazz).getColumn(headerName);
+        if (column == null) {
+            throw new RuntimeException(String.format("%s 中没有标题为 %s 的字段", clazz.getName(), headerName));
+        }
+        ExcelHeader header = column.getHeader();
         try {
-            String[] defaultValues = (String[]) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, headerMap.get(headerName), "defaultValues");
+            String[] defaultValues = header.defaultValues();
             if (!Utils.isEmpty(defaultValues)) {
                 return asList(defaultValues);
             }
-            Class<?> defaultValueClazz = (Class<?>) ReflectUtils.getAnotationValueOfField(ExcelHeader.class, headerMap.get(headerName), "columnDefaultValues");
+            Class<? extends ColumnDefaultValueInterface> defaultValueClazz = header.columnDefaultValues();
             if (ColumnDefaultValueInterface.class.equals(defaultValueClazz)) {
                 return new ArrayList<>(0);
             }
@@ -249,10 +276,7 @@ public class ExcelUtils {
 
     // 如果单元格的类型为日期，则将单元格内的日期格式设置为指定类型
     public static String getFormatStrDateCell(Workbook workbook, Cell cell, String dateFormat) {
-        CellStyle cellStyle = workbook.createCellStyle();
-        CreationHelper createHelper = workbook.getCreationHelper();
-        cellStyle.setDataFormat(createHelper.createDataFormat().getFormat(dateFormat));
-        cell.setCellStyle(cellStyle);
+        cell.setCellStyle(CellStyles.of(workbook).get(new CellStyles.Spec().dataFormat(dateFormat)));
         return new DataFormatter().formatCellValue(cell);
     }
 
@@ -262,11 +286,14 @@ public class ExcelUtils {
     }
 
     public static void setPrompt(Cell cell, String prompt){
-        Sheet sheet = cell.getSheet();
         Row row = cell.getRow();
         CellRangeAddressList ranges = new CellRangeAddressList(row.getRowNum(),row.getRowNum(),
                 cell.getColumnIndex(), cell.getColumnIndex());
+        setPrompt(cell.getSheet(), ranges, prompt);
+    }
 
+    // 为多个区域设置同一个提示, 只添加一个 DataValidation
+    public static void setPrompt(Sheet sheet, CellRangeAddressList ranges, String prompt){
         DataValidationHelper helper = sheet.getDataValidationHelper();
         DataValidationConstraint constraint = helper.createCustomConstraint("A1");
 
@@ -295,10 +322,11 @@ public class ExcelUtils {
         String cellValue = "";
         switch (cellType) {
             case NUMERIC:{
-                cellValue = String.valueOf(cell.getNumericCellValue());
                 if(isDateCell(cell)){
-                    cellValue = DateUtils.format(cell.getDateCellValue(), "yyyy-MM-dd HH:mm:ss");
+                    cellValue = DateUtils.formatAll(cell.getLocalDateTimeCellValue());
 //                    return getFormatStrDateCell(cell.getSheet().getWorkbook(), cell, "yyyy-MM-dd HH:mm:ss");
+                } else {
+                    cellValue = String.valueOf(cell.getNumericCellValue());
                 }
                 break;
             }
@@ -315,6 +343,106 @@ public class ExcelUtils {
         return cellValue.trim();
     }
 
+    /*
+     * 按类型读取单元格, 数值和日期不经过字符串
+     * 公式取缓存的计算结果; 文本单元格按对应类型解析
+     * getCellDouble、getCellLong、getCellBoolean 读取空单元格时抛出异常, 调用前可用 isEmptyCell 判断
+     */
+
+    // 数值按 Excel 常规格式转换, 整数不带 .0; 日期与 getCellValue 相同, 公式取缓存的计算结果; 其余同 getCellValue
+    public static String getCellString(Cell cell) {
+        if (cell != null && getValueType(cell) == CellType.NUMERIC) {
+            if (DateUtil.isCellDateFormatted(cell)) {
+                return DateUtils.formatAll(cell.getLocalDateTimeCellValue());
+            }
+            return NumberToTextConverter.toText(cell.getNumericCellValue());
+        }
+        return getCellValue(cell);
+    }
+
+    public static double getCellDouble(Cell cell) {
+        switch (getValueType(cell)) {
+            case NUMERIC:
+                return cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? 1 : 0;
+            case STRING:
+                Double value = Converters.get(Double.class).fromString(cell.getStringCellValue());
+                if (value == null) {
+                    throw notTyped(cell, "数值");
+                }
+                return value;
+            default:
+                throw notTyped(cell, "数值");
+        }
+    }
+
+    // 数值必须是整数
+    public static long getCellLong(Cell cell) {
+        switch (getValueType(cell)) {
+            case NUMERIC:
+                double number = cell.getNumericCellValue();
+                if (number != Math.rint(number) || Math.abs(number) >= 0x1p63) {
+                    throw notTyped(cell, "整数");
+                }
+                return (long) number;
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? 1 : 0;
+            case STRING:
+                Long value = Converters.get(Long.class).fromString(cell.getStringCellValue());
+                if (value == null) {
+                    throw notTyped(cell, "整数");
+                }
+                return value;
+            default:
+                throw notTyped(cell, "整数");
+        }
+    }
+
+    public static boolean getCellBoolean(Cell cell) {
+        switch (getValueType(cell)) {
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case NUMERIC:
+                return cell.getNumericCellValue() != 0;
+            case STRING:
+                Boolean value = Converters.get(Boolean.class).fromString(cell.getStringCellValue());
+                if (value == null) {
+                    throw notTyped(cell, "布尔值");
+                }
+                return value;
+            default:
+                throw notTyped(cell, "布尔值");
+        }
+    }
+
+    // 数值按 excel 日期序列号转换, 考虑工作簿的 1904 日期系统; 空单元格返回 null
+    public static LocalDateTime getCellLocalDateTime(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        switch (getValueType(cell)) {
+            case NUMERIC:
+                return cell.getLocalDateTimeCellValue();
+            case STRING:
+                return Converters.get(LocalDateTime.class).fromString(cell.getStringCellValue());
+            case BLANK:
+                return null;
+            default:
+                throw notTyped(cell, "日期");
+        }
+    }
+
+    // 单元格值的类型, 公式取缓存的计算结果的类型
+    static CellType getValueType(Cell cell) {
+        CellType cellType = cell.getCellType();
+        return cellType == CellType.FORMULA ? cell.getCachedFormulaResultType() : cellType;
+    }
+
+    private static RuntimeException notTyped(Cell cell, String typeName) {
+        return new RuntimeException(String.format("单元格 %s 不是%s", getCellPosition(cell), typeName));
+    }
+
     /**
      * 简单地统计遍历过的行
      * 以及获取正在遍历的行
@@ -349,14 +477,62 @@ public class ExcelUtils {
             return null;
         }
         if (byte[].class.equals(value.getClass())) {
-            int picIndex = workbook.addPicture((byte[]) value, Workbook.PICTURE_TYPE_JPEG);
-            CreationHelper helper = workbook.getCreationHelper();
-            ClientAnchor anchor = helper.createClientAnchor();
-            anchor.setRow1(rowIndex);
-            anchor.setRow2(rowIndex + 1);
-            anchor.setCol1(colIndex);
-            anchor.setCol2(colIndex + 1);
-            sheet.getDrawingPatriarch().createPicture(anchor, picIndex);
+            Pictures.of(workbook).place(sheet, rowIndex, colIndex, (byte[]) value);
+        } else {
+            return value.toString();
+        }
+        return null;
+    };
+
+    static final String DATE_TIME_FORMAT = "yyyy-mm-dd hh:mm:ss";
+    static final String DATE_FORMAT = "yyyy-mm-dd";
+
+    /**
+     * 按值的类型写入单元格: 数字、日期、布尔值以原生类型写入, 不经过字符串, 也不进入共享字符串表
+     * 日期使用 {@link CellStyles#dateStyle()}、{@link CellStyles#dateTimeStyle()}, 每个工作簿只解析一次; byte[] 按图片处理, 其余类型写入 toString
+     * 超过 15 位有效数字的 BigDecimal、BigInteger 以及超过 2^53 的 long 写为字符串以免丢失精度
+     */
+    public static ExcelExporter.CellValueFormat SET_TYPED_VALUE = (int sheetIndex, int rowIndex, int colIndex,
+                                                                   Workbook workbook, Sheet sheet, Row row, Cell cell, Object value) -> {
+        if (isEmptyObject(value)) {
+            return null;
+        }
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof Double || value instanceof Float) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Long) {
+            long l = ((Number) value).longValue();
+            // Math.abs(Long.MIN_VALUE) 仍为负数, 分别比较两端
+            if (l > (1L << 53) || l < -(1L << 53)) {
+                return value.toString();
+            }
+            cell.setCellValue(l);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            if (decimal.precision() > 15) {
+                return decimal.toPlainString();
+            }
+            cell.setCellValue(decimal.doubleValue());
+        } else if (value instanceof BigInteger) {
+            return value.toString();
+        } else if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(CellStyles.of(workbook).dateTimeStyle());
+        } else if (value instanceof LocalDateTime) {
+            cell.setCellValue((LocalDateTime) value);
+            cell.setCellStyle(CellStyles.of(workbook).dateTimeStyle());
+        } else if (value instanceof LocalDate) {
+            cell.setCellValue((LocalDate) value);
+            cell.setCellStyle(CellStyles.of(workbook).dateStyle());
+        } else if (byte[].class.equals(value.getClass())) {
+            return SET_PIC.accept(sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, value);
         } else {
             return value.toString();
         }
@@ -0,0 +1,105 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.util.*;
+
+/**
+ * 按 @ExcelHeader 导出 DTO 时的列计划
+ * 列的顺序、隐藏列、字段读取器和 @ValueMap 的反向映射每个 DTO 类型只编译一次, 以 ClassValue 登记;
+ * valueMapClass 的映射可能随缓存过期而变化, 每次导出时经由 ValueMapCache 重新获取
+ */
+class ExportPlan<T> {
+
+    private static final ClassValue<Columns> COLUMNS = new ClassValue<Columns>() {
+        @Override
+        protected Columns computeValue(Class<?> type) {
+            return new Columns(type);
+        }
+    };
+
+    private final Columns columns;
+    private final List<Map<String, String>> reverseValueMaps; // 导出时的反向值映射(DTO 中存的值 -> excel 中显示的值), 按列下标, 没有值映射的列为 null
+
+    private ExportPlan(Columns columns) {
+        this.columns = columns;
+        this.reverseValueMaps = new ArrayList<>(columns.headers.size());
+        for (int i = 0; i < columns.headers.size(); i++) {
+            Class<? extends ValueMapInterface> valueMapClass = columns.valueMapClasses.get(i);
+            reverseValueMaps.add(valueMapClass == null ? columns.declaredReverseMaps.get(i)
+                    : reverse(ExcelUtils.getValueMapCache().get(valueMapClass)));
+        }
+    }
+
+    static <T> ExportPlan<T> compile(Class<T> type) {
+        return new ExportPlan<>(COLUMNS.get(type));
+    }
+
+    private static Map<String, String> reverse(Map<String, String> valueMap) {
+        if (Utils.isEmpty(valueMap)) {
+            return null;
+        }
+        Map<String, String> reverse = new HashMap<>();
+        valueMap.forEach((key, value) -> reverse.putIfAbsent(value, key));
+        return reverse;
+    }
+
+    // 与单次导出无关的部分
+    private static final class Columns {
+        final List<String> headers;
+        final FieldAccessor[] accessors;
+        final List<Integer> hiddenColumns;
+        final List<Map<String, String>> declaredReverseMaps; // 由 @ValueMap 声明的映射, 按列下标
+        final List<Class<? extends ValueMapInterface>> valueMapClasses; // 没有 @ValueMap 而声明了 valueMapClass 的列, 其余为 null
+
+        Columns(Class<?> type) {
+            DtoMetadata metadata = DtoMetadata.of(type);
+            this.headers = metadata.getHeaders();
+            this.accessors = new FieldAccessor[headers.size()];
+            this.declaredReverseMaps = new ArrayList<>(headers.size());
+            this.valueMapClasses = new ArrayList<>(headers.size());
+            List<Integer> hiddenColumns = new ArrayList<>();
+            for (int i = 0; i < headers.size(); i++) {
+                String headerName = headers.get(i);
+                accessors[i] = FieldAccessor.of(metadata.getHeaderMap().get(headerName));
+                Map<String, String> valueMap = metadata.getValueMap(headerName);
+                Class<? extends ValueMapInterface> valueMapClass = metadata.getColumn(headerName).getHeader().valueMapClass();
+                declaredReverseMaps.add(reverse(valueMap));
+                valueMapClasses.add(valueMap == null && !ValueMapInterface.class.equals(valueMapClass) ? valueMapClass : null);
+                if (metadata.isHidden(headerName)) {
+                    hiddenColumns.add(i);
+                }
+            }
+            this.hiddenColumns = Collections.unmodifiableList(hiddenColumns);
+        }
+    }
+
+    List<String> getHeaders() {
+        return columns.headers;
+    }
+
+    List<Integer> getHiddenColumns() {
+        return columns.hiddenColumns;
+    }
+
+    /**
+     * 一行数据的视图, 按列读取时才从 DTO 中取值, 不复制
+     */
+    List<Object> row(T dto) {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int colIndex) {
+                Object value = columns.accessors[colIndex].get(dto);
+                Map<String, String> reverse = reverseValueMaps.get(colIndex);
+                if (reverse != null && value != null) {
+                    String key = reverse.get(String.valueOf(value));
+                    return key != null ? key : value;
+                }
+                return value;
+            }
+
+            @Override
+            public int size() {
+                return columns.accessors.length;
+            }
+        };
+    }
+}
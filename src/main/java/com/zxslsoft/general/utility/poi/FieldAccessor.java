@@ -0,0 +1,236 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于 MethodHandle 的字段读写器, 每个字段只创建一次并缓存, 之后的读写不再经过 setAccessible 和反射调用
+ * int、long、double、boolean 及其包装类型的字段额外提供不装箱的读写方法; final 字段的写入仍走反射的 Field.set
+ */
+public final class FieldAccessor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    // Field.set(Object, Object), final 字段写入时使用
+    private static final MethodHandle FIELD_SET;
+
+    static {
+        try {
+            FIELD_SET = LOOKUP.findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // 按 Field 缓存, 以声明该字段的类区分
+    private static final ClassValue<Map<String, FieldAccessor>> DECLARED = new ClassValue<Map<String, FieldAccessor>>() {
+        @Override
+        protected Map<String, FieldAccessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    // 按字段名缓存, 查找规则与 ReflectUtils.getField 一致; 不存在的字段缓存为 Optional.empty()
+    private static final ClassValue<Map<String, Optional<FieldAccessor>>> BY_NAME = new ClassValue<Map<String, Optional<FieldAccessor>>>() {
+        @Override
+        protected Map<String, Optional<FieldAccessor>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final Field field;
+    private final MethodHandle getter;  // (Object)Object
+    private final MethodHandle setter;  // (Object,Object)void
+    private final MethodHandle intGetter;
+    private final MethodHandle intSetter;
+    private final MethodHandle longGetter;
+    private final MethodHandle longSetter;
+    private final MethodHandle doubleGetter;
+    private final MethodHandle doubleSetter;
+    private final MethodHandle booleanGetter;
+    private final MethodHandle booleanSetter;
+
+    private FieldAccessor(Field field) {
+        this.field = field;
+        field.setAccessible(true);
+        try {
+            MethodHandle rawGetter = LOOKUP.unreflectGetter(field);
+            MethodHandle rawSetter;
+            if (Modifier.isFinal(field.getModifiers())) {
+                // unreflectSetter 不支持 final 字段, 与原先一样退回到 setAccessible 之后的 Field.set
+                rawSetter = FIELD_SET.bindTo(field);
+            } else {
+                rawSetter = LOOKUP.unreflectSetter(field);
+                if (Modifier.isStatic(field.getModifiers())) {
+                    rawSetter = MethodHandles.dropArguments(rawSetter, 0, Object.class);
+                }
+            }
+            if (Modifier.isStatic(field.getModifiers())) {
+                rawGetter = MethodHandles.dropArguments(rawGetter, 0, Object.class);
+            }
+            this.getter = rawGetter.asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = rawSetter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+            Class<?> type = field.getType();
+            this.intGetter = typedGetter(rawGetter, type, int.class, Integer.class);
+            this.intSetter = typedSetter(rawSetter, type, int.class, Integer.class);
+            this.longGetter = typedGetter(rawGetter, type, long.class, Long.class);
+            this.longSetter = typedSetter(rawSetter, type, long.class, Long.class);
+            this.doubleGetter = typedGetter(rawGetter, type, double.class, Double.class);
+            this.doubleSetter = typedSetter(rawSetter, type, double.class, Double.class);
+            this.booleanGetter = typedGetter(rawGetter, type, boolean.class, Boolean.class);
+            this.booleanSetter = typedSetter(rawSetter, type, boolean.class, Boolean.class);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MethodHandle typedGetter(MethodHandle rawGetter, Class<?> type, Class<?> primitive, Class<?> wrapper) {
+        if (!primitive.equals(type) && !wrapper.equals(type)) {
+            return null;
+        }
+        return rawGetter.asType(MethodType.methodType(primitive, Object.class));
+    }
+
+    private static MethodHandle typedSetter(MethodHandle rawSetter, Class<?> type, Class<?> primitive, Class<?> wrapper) {
+        if (!primitive.equals(type) && !wrapper.equals(type)) {
+            return null;
+        }
+        return rawSetter.asType(MethodType.methodType(void.class, Object.class, primitive));
+    }
+
+    /**
+     * 获取字段的读写器
+     */
+    public static FieldAccessor of(Field field) {
+        return DECLARED.get(field.getDeclaringClass()).computeIfAbsent(field.getName(), _k -> new FieldAccessor(field));
+    }
+
+    /**
+     * 按字段名获取读写器, 先找 public 字段(含父类), 再找本类声明的字段, 不存在时返回 null
+     */
+    public static FieldAccessor of(Class<?> clazz, String fieldName) {
+        return BY_NAME.get(clazz).computeIfAbsent(fieldName, _k -> {
+            try {
+                return Optional.of(of(clazz.getField(fieldName)));
+            } catch (NoSuchFieldException e) {
+                try {
+                    return Optional.of(of(clazz.getDeclaredField(fieldName)));
+                } catch (NoSuchFieldException e1) {
+                    return Optional.empty();
+                }
+            }
+        }).orElse(null);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public Class<?> getType() {
+        return field.getType();
+    }
+
+    public Object get(Object o) {
+        try {
+            return getter.invokeExact(o);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void set(Object o, Object value) {
+        try {
+            setter.invokeExact(o, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public int getInt(Object o) {
+        try {
+            return (int) typed(intGetter, int.class).invokeExact(o);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void setInt(Object o, int value) {
+        try {
+            typed(intSetter, int.class).invokeExact(o, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public long getLong(Object o) {
+        try {
+            return (long) typed(longGetter, long.class).invokeExact(o);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void setLong(Object o, long value) {
+        try {
+            typed(longSetter, long.class).invokeExact(o, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public double getDouble(Object o) {
+        try {
+            return (double) typed(doubleGetter, double.class).invokeExact(o);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void setDouble(Object o, double value) {
+        try {
+            typed(doubleSetter, double.class).invokeExact(o, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public boolean getBoolean(Object o) {
+        try {
+            return (boolean) typed(booleanGetter, boolean.class).invokeExact(o);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    public void setBoolean(Object o, boolean value) {
+        try {
+            typed(booleanSetter, boolean.class).invokeExact(o, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private MethodHandle typed(MethodHandle handle, Class<?> primitive) {
+        if (handle == null) {
+            throw new RuntimeException(String.format("field %s of type %s can't be accessed as %s",
+                    field.getName(), field.getType().getName(), primitive.getName()));
+        }
+        return handle;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+}
@@ -0,0 +1,162 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 导入时标题列与 DTO 字段的绑定关系, 每个 (DTO 类型, 标题行) 只编译一次
+ * 之后每行数据按列号取绑定即可, 不再逐个单元格读取标题、查找字段和转换方法
+ */
+class ImportBinding<T> {
+
+    private final Class<T> type;
+    private final ColumnBinding[] columns;
+    private final DataFormatter formatter = new DataFormatter();
+
+    private ImportBinding(Class<T> type, ColumnBinding[] columns) {
+        this.type = type;
+        this.columns = columns;
+    }
+
+    static <T> ImportBinding<T> compile(Class<T> type, Row headerRow, Map<String, Map<String, String>> headerOptionalValue) {
+        if (headerRow == null || headerRow.getLastCellNum() < 0) {
+            return new ImportBinding<>(type, new ColumnBinding[0]);
+        }
+        Map<String, Field> headerMap = ExcelUtils.getHeaderMap(type);
+        DataFormatter formatter = new DataFormatter();
+        ColumnBinding[] columns = new ColumnBinding[headerRow.getLastCellNum()];
+        for (int colNum = 0; colNum < columns.length; colNum++) {
+            String headerName = formatter.formatCellValue(headerRow.getCell(colNum));
+            Field field = headerMap.get(headerName);
+            if (field == null) {
+                continue;
+            }
+            Map<String, String> valueMap = headerOptionalValue == null ? null : headerOptionalValue.get(headerName);
+            columns[colNum] = new ColumnBinding(FieldAccessor.of(field), Converters.get(field.getType()),
+                    Utils.isEmpty(valueMap) ? null : valueMap);
+        }
+        return new ImportBinding<>(type, columns);
+    }
+
+    T newInstance() {
+        return ReflectUtils.newInstance(type);
+    }
+
+    void setValue(T dto, Cell cell) {
+        int colNum = cell.getColumnIndex();
+        if (colNum >= columns.length || columns[colNum] == null) {
+            return;
+        }
+        ColumnBinding column = columns[colNum];
+        if (column.kind != ValueKind.OTHER && column.valueMap == null && setTyped(dto, column, cell)) {
+            return;
+        }
+        Object converted;
+        if (column.numeric && column.valueMap == null && ExcelUtils.getValueType(cell) == CellType.NUMERIC) {
+            // 数值单元格直接转换, 不经过格式化后的字符串
+            converted = column.converter.fromNumber(cell.getNumericCellValue());
+        } else {
+            String value = formatter.formatCellValue(cell);
+            if (column.valueMap != null && !value.isEmpty()) {
+                value = column.valueMap.get(value);
+                if (Utils.isEmptyString(value)) {
+                    throw new RuntimeException("不存在键值映射关系!");
+                }
+            }
+            converted = column.converter.fromString(value);
+        }
+        if (converted == null && column.primitive) {
+            // 空单元格, 基本类型的字段保留默认值
+            return;
+        }
+        column.accessor.set(dto, converted);
+    }
+
+    // 数值、布尔单元格按字段的类型直接读取, 基本类型的字段不装箱; 日期按工作簿的日期系统(1900 或 1904)读取, 经转换器按对象写入
+    private static boolean setTyped(Object dto, ColumnBinding column, Cell cell) {
+        CellType valueType = ExcelUtils.getValueType(cell);
+        if (valueType != CellType.NUMERIC && valueType != CellType.BOOLEAN) {
+            return false;
+        }
+        switch (column.kind) {
+            case INT:
+                long value = ExcelUtils.getCellLong(cell);
+                if (value != (int) value) {
+                    throw new RuntimeException(String.format("%s can't convert to type %s", value, column.accessor.getType().getName()));
+                }
+                column.accessor.setInt(dto, (int) value);
+                return true;
+            case LONG:
+                column.accessor.setLong(dto, ExcelUtils.getCellLong(cell));
+                return true;
+            case DOUBLE:
+                column.accessor.setDouble(dto, ExcelUtils.getCellDouble(cell));
+                return true;
+            case BOOLEAN:
+                column.accessor.setBoolean(dto, ExcelUtils.getCellBoolean(cell));
+                return true;
+            case DATE_TIME:
+                if (valueType != CellType.NUMERIC) {
+                    return false;
+                }
+                column.accessor.set(dto, column.converter.fromDateTime(ExcelUtils.getCellLocalDateTime(cell)));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 可以按类型直接读取单元格的字段类型
+    private enum ValueKind {
+        INT, LONG, DOUBLE, BOOLEAN, DATE_TIME, OTHER;
+
+        static ValueKind of(Class<?> type) {
+            // 日期类型登记了自定义转换器时也按日期读取, 由 Converter.fromDateTime 交给自定义的转换
+            if (Date.class.equals(type) || LocalDateTime.class.equals(type) || LocalDate.class.equals(type)) {
+                return DATE_TIME;
+            }
+            if (Converters.isRegistered(type)) {
+                return OTHER;
+            }
+            if (int.class.equals(type) || Integer.class.equals(type)) {
+                return INT;
+            }
+            if (long.class.equals(type) || Long.class.equals(type)) {
+                return LONG;
+            }
+            if (double.class.equals(type) || Double.class.equals(type)) {
+                return DOUBLE;
+            }
+            if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+                return BOOLEAN;
+            }
+            return OTHER;
+        }
+    }
+
+    private static class ColumnBinding {
+        final FieldAccessor accessor;
+        final Converters.Converter<?> converter;
+        final Map<String, String> valueMap; // 下拉选项的键值映射, 没有时为 null
+        final boolean numeric; // 数值单元格是否直接按数值转换; String 字段以及未覆盖 fromNumber 的转换器(如 Character、枚举)仍按显示的文本
+        final boolean primitive;
+        final ValueKind kind;
+
+        ColumnBinding(FieldAccessor accessor, Converters.Converter<?> converter, Map<String, String> valueMap) {
+            this.accessor = accessor;
+            this.converter = converter;
+            this.valueMap = valueMap;
+            this.numeric = !String.class.equals(accessor.getType()) && Converters.convertsNumbers(converter);
+            this.primitive = accessor.getType().isPrimitive();
+            this.kind = ValueKind.of(accessor.getType());
+        }
+    }
+}
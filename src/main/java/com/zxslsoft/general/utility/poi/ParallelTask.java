@@ -0,0 +1,59 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 提交到线程池的一个并行任务, 有任务失败时用于取消其余任务
+ * Future.cancel 不会等待正在执行的任务结束, 而失败后调用方还要清理工作簿或临时文件, 因此取消时等待已开始的任务结束
+ */
+final class ParallelTask<V> implements Callable<V> {
+    private final Callable<V> task;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Future<V> future;
+
+    private ParallelTask(Callable<V> task) {
+        this.task = task;
+    }
+
+    static <V> ParallelTask<V> submit(ExecutorService executor, Callable<V> task) {
+        ParallelTask<V> parallelTask = new ParallelTask<>(task);
+        parallelTask.future = executor.submit(parallelTask);
+        return parallelTask;
+    }
+
+    @Override
+    public V call() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+            // 开始前已被取消
+            return null;
+        }
+        try {
+            return task.call();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    V get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    /**
+     * 取消任务, 已开始的任务会被中断, 并等待其结束; 已完成的任务直接返回
+     */
+    void cancelAndAwait() {
+        if (started.compareAndSet(false, true)) {
+            // 还未开始, 之后也不会再执行
+            future.cancel(false);
+            return;
+        }
+        future.cancel(true);
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
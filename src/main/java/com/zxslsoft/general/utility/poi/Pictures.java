@@ -0,0 +1,192 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static com.zxslsoft.general.utility.poi.Utils.nullSafe;
+
+/**
+ * 工作簿范围内的图片登记, 内容相同的图片只添加一次, 之后的锚点都引用同一个图片下标
+ * 图片按 SHA-256 摘要和长度判断是否相同, 不保留图片内容
+ * 图片类型按文件头识别, 支持 PNG、JPEG、GIF, 无法识别时按 JPEG 处理; xls 不支持 GIF
+ * 图片登记在工作簿级别, 以工作簿对象加锁, 与 {@link CellStyles} 使用同一把锁
+ */
+public final class Pictures {
+
+    // 值中只弱引用工作簿, 图片只记摘要和下标, 工作簿不再使用时整项可以被回收
+    private static final Map<Workbook, Pictures> REGISTRY = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final WeakReference<Workbook> workbook;
+    private final Map<Digest, Integer> indexes = new HashMap<>();
+    private Map<Sheet, List<Placement>> deferred; // 并行生成 sheet 页时暂存的图片, 写完后按 sheet 页的顺序添加
+
+    private Pictures(Workbook workbook) {
+        this.workbook = new WeakReference<>(workbook);
+    }
+
+    /**
+     * 获取工作簿对应的图片登记
+     */
+    public static Pictures of(Workbook workbook) {
+        return REGISTRY.computeIfAbsent(workbook, Pictures::new);
+    }
+
+    /**
+     * 添加图片并返回图片下标, 内容相同的图片返回同一个下标
+     */
+    public int add(byte[] data) {
+        Workbook wb = workbook();
+        synchronized (wb) {
+            Digest digest = new Digest(data);
+            Integer index = indexes.get(digest);
+            if (index == null) {
+                int type = pictureType(data);
+                if (type == XSSFWorkbook.PICTURE_TYPE_GIF && wb instanceof HSSFWorkbook) {
+                    throw new RuntimeException("xls 不支持 GIF 图片, 请转换为 PNG 或 JPEG");
+                }
+                index = wb.addPicture(data, type);
+                indexes.put(digest, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 在单元格上放置图片, 图片占满该单元格
+     * 并行生成 sheet 页时先暂存, 由导出在各 sheet 页写完后按顺序添加, 图片的编号与顺序生成时一致; 暂存期间不要修改 data
+     */
+    public void place(Sheet sheet, int rowIndex, int colIndex, byte[] data) {
+        Workbook wb = workbook();
+        synchronized (wb) {
+            if (deferred != null) {
+                deferred.computeIfAbsent(sheet, _k -> new ArrayList<>()).add(new Placement(rowIndex, colIndex, data));
+                return;
+            }
+            draw(wb, sheet, rowIndex, colIndex, add(data));
+        }
+    }
+
+    // 之后 place 的图片暂存, 直到 flush
+    void defer() {
+        synchronized (workbook()) {
+            deferred = new IdentityHashMap<>();
+        }
+    }
+
+    // 添加 sheet 页暂存的图片
+    void flush(Sheet sheet) {
+        Workbook wb = workbook();
+        synchronized (wb) {
+            for (Placement placement : nullSafe(deferred.remove(sheet))) {
+                draw(wb, sheet, placement.rowIndex, placement.colIndex, add(placement.data));
+            }
+        }
+    }
+
+    // 不再暂存, 未 flush 的图片被丢弃
+    void endDefer() {
+        synchronized (workbook()) {
+            deferred = null;
+        }
+    }
+
+    public int size() {
+        synchronized (workbook()) {
+            return indexes.size();
+        }
+    }
+
+    private Workbook workbook() {
+        Workbook wb = workbook.get();
+        if (wb == null) {
+            throw new RuntimeException("工作簿已被回收");
+        }
+        return wb;
+    }
+
+    private static void draw(Workbook wb, Sheet sheet, int rowIndex, int colIndex, int picIndex) {
+        ClientAnchor anchor = wb.getCreationHelper().createClientAnchor();
+        anchor.setRow1(rowIndex);
+        anchor.setRow2(rowIndex + 1);
+        anchor.setCol1(colIndex);
+        anchor.setCol2(colIndex + 1);
+        Drawing<?> drawing = sheet.getDrawingPatriarch() != null ? sheet.getDrawingPatriarch() : sheet.createDrawingPatriarch();
+        drawing.createPicture(anchor, picIndex);
+    }
+
+    /**
+     * 按文件头识别图片类型; GIF 返回 XSSFWorkbook.PICTURE_TYPE_GIF, 只能添加到 xlsx
+     */
+    public static int pictureType(byte[] data) {
+        if (startsWith(data, 0x89, 'P', 'N', 'G')) {
+            return Workbook.PICTURE_TYPE_PNG;
+        }
+        if (startsWith(data, 0xFF, 0xD8, 0xFF)) {
+            return Workbook.PICTURE_TYPE_JPEG;
+        }
+        if (startsWith(data, 'G', 'I', 'F', '8')) {
+            return XSSFWorkbook.PICTURE_TYPE_GIF;
+        }
+        return Workbook.PICTURE_TYPE_JPEG;
+    }
+
+    private static boolean startsWith(byte[] data, int... magic) {
+        if (data.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Placement {
+        final int rowIndex;
+        final int colIndex;
+        final byte[] data;
+
+        Placement(int rowIndex, int colIndex, byte[] data) {
+            this.rowIndex = rowIndex;
+            this.colIndex = colIndex;
+            this.data = data;
+        }
+    }
+
+    // 图片内容的摘要, 摘要相同且长度相同视为同一张图片
+    private static class Digest {
+        private final byte[] sha256;
+        private final int length;
+        private final int hash;
+
+        Digest(byte[] data) {
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            this.length = data.length;
+            this.hash = Arrays.hashCode(sha256);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && length == ((Digest) o).length && Arrays.equals(sha256, ((Digest) o).sha256);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -45,18 +45,7 @@ public class ReflectUtils {
      * 获取字段值
      */
     public static Object getValue(Object o, String fieldName) throws NoSuchFieldException {
-        try {
-            Field field;
-            try {
-                field = o.getClass().getField(fieldName);
-            } catch (NoSuchFieldException e) {
-                field = o.getClass().getDeclaredField(fieldName);
-            }
-            field.setAccessible(true);
-            return field.get(o);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("获取对象成员值失败", e);
-        }
+        return accessor(o, fieldName).get(o);
     }
 
     public static Object getValue(Field field) {
@@ -75,18 +64,16 @@ public class ReflectUtils {
      * 设置字段值
      */
     public static void setValue(Object o, String fieldName, Object value) throws NoSuchFieldException {
-        try {
-            Field field;
-            try {
-                field = o.getClass().getField(fieldName);
-            } catch (NoSuchFieldException e) {
-                field = o.getClass().getDeclaredField(fieldName);
-            }
-            field.setAccessible(true);
-            field.set(o, value);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("获取对象成员值失败", e);
+        accessor(o, fieldName).set(o, value);
+    }
+
+    // 缓存的字段读写器, 不存在该字段时抛出 NoSuchFieldException
+    private static FieldAccessor accessor(Object o, String fieldName) throws NoSuchFieldException {
+        FieldAccessor accessor = FieldAccessor.of(o.getClass(), fieldName);
+        if (accessor == null) {
+            throw new NoSuchFieldException(fieldName);
         }
+        return accessor;
     }
 
     /**
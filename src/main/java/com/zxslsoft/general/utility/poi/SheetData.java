@@ -0,0 +1,114 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 导出时一个 sheet 页的数据来源, 每个元素为一行
+ * 除 List 外, 其余来源都是按需拉取的, 只能遍历一次, 配合流式写出可以边查询边导出
+ */
+public final class SheetData<T> implements Iterable<List<T>>, Closeable {
+
+    private final Supplier<Iterator<List<T>>> rows;
+    private final boolean repeatable;
+    private final Runnable onClose;
+    private boolean iterated;
+    private boolean closed;
+
+    private SheetData(Supplier<Iterator<List<T>>> rows, boolean repeatable, Runnable onClose) {
+        this.rows = rows;
+        this.repeatable = repeatable;
+        this.onClose = onClose;
+    }
+
+    /**
+     * 已经在内存中的数据, 可以多次遍历
+     */
+    public static <T> SheetData<T> of(List<List<T>> rows) {
+        List<List<T>> list = Utils.nullSafe(rows);
+        return new SheetData<>(list::iterator, true, null);
+    }
+
+    /**
+     * 从迭代器中逐行拉取
+     */
+    public static <T> SheetData<T> of(Iterator<List<T>> rows) {
+        return new SheetData<>(() -> rows, false, null);
+    }
+
+    /**
+     * 从 Stream 中逐行拉取, 该 sheet 页写完后关闭 Stream, 如数据库游标
+     */
+    public static <T> SheetData<T> of(Stream<List<T>> rows) {
+        return new SheetData<>(rows::iterator, false, rows::close);
+    }
+
+    /**
+     * 分页拉取, 页号从 0 开始, 返回 null 或空页时结束
+     */
+    public static <T> SheetData<T> paged(IntFunction<List<List<T>>> pageSupplier) {
+        return new SheetData<>(() -> new PageIterator<>(pageSupplier), false, null);
+    }
+
+    /**
+     * 能否多次遍历
+     */
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    @Override
+    public Iterator<List<T>> iterator() {
+        if (iterated && !repeatable) {
+            throw new RuntimeException("该数据源只能遍历一次");
+        }
+        iterated = true;
+        return rows.get();
+    }
+
+    @Override
+    public void close() {
+        if (!closed && onClose != null) {
+            onClose.run();
+        }
+        closed = true;
+    }
+
+    private static class PageIterator<T> implements Iterator<List<T>> {
+        private final IntFunction<List<List<T>>> pageSupplier;
+        private int pageNo = 0;
+        private Iterator<List<T>> page = Collections.emptyIterator();
+        private boolean exhausted;
+
+        PageIterator(IntFunction<List<List<T>>> pageSupplier) {
+            this.pageSupplier = pageSupplier;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !exhausted) {
+                List<List<T>> next = pageSupplier.apply(pageNo++);
+                if (Utils.isEmpty(next)) {
+                    exhausted = true;
+                } else {
+                    page = next.iterator();
+                }
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.zxslsoft.general.utility.poi;
+
+/**
+ * 流式读取 excel 时, 解析器按文件顺序推送的单元格事件
+ */
+interface SheetEventHandler {
+
+    /**
+     * 在所有 sheet 页之前调用, 工作簿是否使用 1904 日期系统, 影响数值单元格中日期序列号的解释
+     */
+    void date1904(boolean date1904);
+
+    /**
+     * 返回 false 时跳过该 sheet 页, 解析器不会再推送该页的行
+     */
+    boolean startSheet(int sheetIndex, String sheetName);
+
+    /**
+     * sheet 页已使用区域的最后一列, 在该页的行之前推送; 文件中没有该记录时不会调用
+     * 只有样式的空单元格也计算在内, 因此只是上限
+     */
+    void dimension(int lastColNum);
+
+    void startRow(int rowNum);
+
+    void numericCell(int colNum, double value, int formatIndex, String formatString);
+
+    void stringCell(int colNum, String value);
+
+    void booleanCell(int colNum, boolean value);
+
+    void errorCell(int colNum, byte errorCode);
+
+    /**
+     * 返回 false 时不再推送该 sheet 页剩余的行, 之后直接 endSheet
+     */
+    boolean endRow();
+
+    void endSheet();
+}
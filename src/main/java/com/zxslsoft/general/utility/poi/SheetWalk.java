@@ -0,0 +1,114 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 单次遍历某个 sheet 页的行, 按 {@link ExcelImporter.ExcelWalker} 的约定逐个单元格回调
+ * 列的范围为整个 sheet 页的范围, 需在传入行之前通过 {@link #measure(Row)} 或 {@link #bound(int)} 确定,
+ * 这样每一行访问的列都相同; 空行先挂起, 后面出现非空行时再补上回调, 因此末尾的空行不会被访问
+ */
+abstract class SheetWalk {
+
+    private final Workbook workbook;
+    private final Sheet sheet;
+    private final Set<Integer> skipRows;
+    private final Set<Integer> skipColumns;
+    private final ExcelImporter.ExcelWalker walker;
+    private final List<Integer> pendingRows = new ArrayList<>();
+    private int maxCol = -1;
+
+    SheetWalk(Workbook workbook, Sheet sheet, Set<Integer> skipRows, Set<Integer> skipColumns,
+              ExcelImporter.ExcelWalker walker) {
+        this.workbook = workbook;
+        this.sheet = sheet;
+        this.skipRows = Utils.nullSafe(skipRows);
+        this.skipColumns = Utils.nullSafe(skipColumns);
+        this.walker = walker;
+    }
+
+    /**
+     * 预先扫描一行, 列的范围取所有未跳过的行中最后一个非空单元格, 与逐行遍历之前整页扫描的结果一致
+     */
+    void measure(Row row) {
+        if (!skipRows.contains(row.getRowNum())) {
+            bound(lastNotEmptyCol(row));
+        }
+    }
+
+    /**
+     * 直接给出列的范围, 如流式读取时 sheet 页的 dimension 记录
+     */
+    void bound(int lastCol) {
+        maxCol = Math.max(maxCol, lastCol);
+    }
+
+    /**
+     * 按行号递增的顺序传入每一行
+     */
+    void accept(Row row) {
+        int rowNum = row.getRowNum();
+        if (skipRows.contains(rowNum)) {
+            release(row);
+            return;
+        }
+        int lastCol = lastNotEmptyCol(row);
+        if (lastCol < 0) {
+            pendingRows.add(rowNum);
+            release(row);
+            return;
+        }
+        bound(lastCol); // 范围记录缺失或不准确时, 至少包含该行
+        for (Integer pending : pendingRows) {
+            Row emptyRow = emptyRow(pending);
+            visit(emptyRow);
+            release(emptyRow);
+        }
+        pendingRows.clear();
+        visit(row);
+        release(row);
+    }
+
+    private void visit(Row row) {
+        for (int colNum = 0; colNum <= maxCol; colNum++) {
+            if (skipColumns.contains(colNum)) {
+                continue;
+            }
+            Cell cell = row.getCell(colNum);
+            if (cell == null) {
+                cell = blankCell(row, colNum);
+            }
+            walker.accept(workbook, sheet, row, cell);
+        }
+    }
+
+    private int lastNotEmptyCol(Row row) {
+        for (int colNum = row.getLastCellNum() - 1; colNum >= 0; colNum--) {
+            if (!skipColumns.contains(colNum) && !ExcelUtils.isEmptyCell(row.getCell(colNum))) {
+                return colNum;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 重新取得之前挂起的空行
+     */
+    abstract Row emptyRow(int rowNum);
+
+    /**
+     * 行中不存在的单元格, 以空白单元格代替
+     */
+    abstract Cell blankCell(Row row, int colNum);
+
+    /**
+     * 该行已回调完毕
+     */
+    abstract void release(Row row);
+}
@@ -0,0 +1,139 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 将流式解析推送的单元格写入一个只保留当前行的临时工作簿, 再交给 {@link SheetWalk} 回调
+ * 第 0 行作为标题行常驻, 回调中仍然可以通过 sheet.getRow(0) 读取标题; 列的范围来自 {@link ColumnRanges} 的预扫描
+ */
+class StreamingWalk implements SheetEventHandler, Closeable {
+
+    private final SXSSFWorkbook scratch = new SXSSFWorkbook(-1);
+    private final Map<String, CellStyle> formatStyles = new HashMap<>();
+    private final List<Integer> walkSheets;
+    private final Map<Integer, Set<Integer>> skipRows;
+    private final Map<Integer, Set<Integer>> skipColumns;
+    private final ColumnRanges columnRanges;
+    private final ExcelImporter.ExcelWalker walker;
+
+    private Sheet sheet;
+    private SheetWalk sheetWalk;
+    private Row row;
+
+    StreamingWalk(List<Integer> walkSheets, Map<Integer, Set<Integer>> skipRows,
+                  Map<Integer, Set<Integer>> skipColumns, ColumnRanges columnRanges, ExcelImporter.ExcelWalker walker) {
+        this.walkSheets = walkSheets;
+        this.skipRows = skipRows;
+        this.skipColumns = skipColumns;
+        this.columnRanges = columnRanges;
+        this.walker = walker;
+    }
+
+    @Override
+    public void date1904(boolean date1904) {
+        // 临时工作簿使用与原文件相同的日期系统, 日期序列号原样写入即可
+        CTWorkbook ctWorkbook = scratch.getXSSFWorkbook().getCTWorkbook();
+        CTWorkbookPr workbookPr = ctWorkbook.isSetWorkbookPr() ? ctWorkbook.getWorkbookPr() : ctWorkbook.addNewWorkbookPr();
+        workbookPr.setDate1904(date1904);
+    }
+
+    @Override
+    public boolean startSheet(int sheetIndex, String sheetName) {
+        if (!walkSheets.contains(sheetIndex)) {
+            return false;
+        }
+        Sheet current = scratch.createSheet(sheetName);
+        this.sheet = current;
+        this.sheetWalk = new SheetWalk(scratch, current, skipRows.get(sheetIndex), skipColumns.get(sheetIndex), walker) {
+            @Override
+            Row emptyRow(int rowNum) {
+                Row emptyRow = current.getRow(rowNum);
+                return emptyRow != null ? emptyRow : current.createRow(rowNum);
+            }
+
+            @Override
+            Cell blankCell(Row row, int colNum) {
+                return row.createCell(colNum);
+            }
+
+            @Override
+            void release(Row row) {
+                if (row.getRowNum() != 0) {
+                    current.removeRow(row);
+                }
+            }
+        };
+        sheetWalk.bound(columnRanges.lastCol(sheetIndex));
+        return true;
+    }
+
+    @Override
+    public void dimension(int lastColNum) {
+        // 列的范围已由预扫描确定
+    }
+
+    @Override
+    public void startRow(int rowNum) {
+        row = sheet.createRow(rowNum);
+    }
+
+    @Override
+    public void numericCell(int colNum, double value, int formatIndex, String formatString) {
+        Cell cell = row.createCell(colNum);
+        cell.setCellValue(value);
+        if (formatIndex != 0) {
+            cell.setCellStyle(formatStyles.computeIfAbsent(formatString, this::createFormatStyle));
+        }
+    }
+
+    @Override
+    public void stringCell(int colNum, String value) {
+        row.createCell(colNum).setCellValue(value);
+    }
+
+    @Override
+    public void booleanCell(int colNum, boolean value) {
+        row.createCell(colNum).setCellValue(value);
+    }
+
+    @Override
+    public void errorCell(int colNum, byte errorCode) {
+        row.createCell(colNum).setCellErrorValue(errorCode);
+    }
+
+    @Override
+    public boolean endRow() {
+        sheetWalk.accept(row);
+        row = null;
+        return true;
+    }
+
+    @Override
+    public void endSheet() {
+        sheetWalk = null;
+        sheet = null;
+    }
+
+    private CellStyle createFormatStyle(String formatString) {
+        CellStyle style = scratch.createCellStyle();
+        style.setDataFormat(scratch.createDataFormat().getFormat(formatString));
+        return style;
+    }
+
+    @Override
+    public void close() {
+        scratch.dispose();
+    }
+}
@@ -0,0 +1,96 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按 {@link ValueMapInterface#cacheMillis()} 过期的值映射缓存
+ * 以 ClassValue 登记, 不阻止实现类被卸载; 同一类型同时只加载一次, 其余线程等待加载结果
+ */
+public class TtlValueMapCache implements ValueMapCache {
+
+    private final ClassValue<Holder> holders = new ClassValue<Holder>() {
+        @Override
+        protected Holder computeValue(Class<?> type) {
+            return new Holder();
+        }
+    };
+
+    private final AtomicLong generation = new AtomicLong(); // invalidateAll 时递增, 之前加载的值全部失效
+
+    @Override
+    public Map<String, String> get(Class<? extends ValueMapInterface> type) {
+        Holder holder = holders.get(type);
+        Entry entry = holder.entry;
+        if (isFresh(holder, entry)) {
+            return entry.valueMap;
+        }
+        if (holder.uncached) {
+            // 上次加载时不缓存的类型不加锁, 每次创建新的实例
+            return load(type, holder);
+        }
+        synchronized (holder) {
+            entry = holder.entry;
+            if (isFresh(holder, entry)) {
+                return entry.valueMap;
+            }
+            return load(type, holder);
+        }
+    }
+
+    // 每次加载都重新读取 cacheMillis, 不缓存的类型之后也可以变为缓存; 返回的映射都不可修改
+    private Map<String, String> load(Class<? extends ValueMapInterface> type, Holder holder) {
+        // 在加载前记下版本, 加载期间被 invalidate 时存下的值已经过期
+        long version = holder.version.get();
+        long currentGeneration = generation.get();
+        ValueMapInterface instance = ReflectUtils.newInstance(type);
+        long cacheMillis = Math.max(0, instance.cacheMillis());
+        Map<String, String> valueMap = instance.getValueMap();
+        if (valueMap != null) {
+            valueMap = Collections.unmodifiableMap(valueMap);
+        }
+        holder.uncached = cacheMillis == 0;
+        if (cacheMillis > 0) {
+            long now = System.currentTimeMillis();
+            long expiresAt = now + cacheMillis < now ? Long.MAX_VALUE : now + cacheMillis;
+            holder.entry = new Entry(valueMap, expiresAt, currentGeneration, version);
+        }
+        return valueMap;
+    }
+
+    @Override
+    public void invalidate(Class<? extends ValueMapInterface> type) {
+        holders.get(type).version.incrementAndGet();
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    private boolean isFresh(Holder holder, Entry entry) {
+        return entry != null && entry.generation == generation.get() && entry.version == holder.version.get()
+                && System.currentTimeMillis() < entry.expiresAt;
+    }
+
+    private static class Holder {
+        volatile Entry entry;
+        volatile boolean uncached; // 上次加载时 cacheMillis 为 0
+        final AtomicLong version = new AtomicLong(); // invalidate 时递增, 之前加载的值失效
+    }
+
+    private static class Entry {
+        final Map<String, String> valueMap;
+        final long expiresAt;
+        final long generation;
+        final long version;
+
+        Entry(Map<String, String> valueMap, long expiresAt, long generation, long version) {
+            this.valueMap = valueMap;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+            this.version = version;
+        }
+    }
+}
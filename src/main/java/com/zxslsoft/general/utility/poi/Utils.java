@@ -8,6 +8,8 @@ import java.lang.reflect.Array;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,6 +22,7 @@ import java.util.stream.Stream;
  */
 @SuppressWarnings("all")
 public class Utils {
+
     private static final Random random = new Random();
 
     /**
@@ -162,6 +165,18 @@ public class Utils {
         }
     }
 
+    /**
+     * 并行任务默认使用的线程池, 优先使用虚拟线程(jdk 21+), 否则使用不超过 cpu 核数的固定线程池
+     * 使用完后由调用方关闭
+     */
+    public static ExecutorService newDefaultExecutor(int tasks) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(Math.max(1, Math.min(tasks, Runtime.getRuntime().availableProcessors())));
+        }
+    }
+
     /**
      * 空指针安全
      */
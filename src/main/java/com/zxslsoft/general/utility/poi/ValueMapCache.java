@@ -0,0 +1,19 @@
+package com.zxslsoft.general.utility.poi;
+
+import java.util.Map;
+
+/**
+ * valueMapClass 值映射的缓存, 通过 {@link ExcelUtils#setValueMapCache(ValueMapCache)} 替换默认实现 {@link TtlValueMapCache}
+ * 数据变化后可调用 invalidate 使缓存失效
+ */
+public interface ValueMapCache {
+
+    /**
+     * 获取 type 对应的值映射, 未缓存或已过期时加载
+     */
+    Map<String, String> get(Class<? extends ValueMapInterface> type);
+
+    void invalidate(Class<? extends ValueMapInterface> type);
+
+    void invalidateAll();
+}
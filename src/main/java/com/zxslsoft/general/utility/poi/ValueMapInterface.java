@@ -6,4 +6,12 @@ public interface ValueMapInterface {
 
     Map<String, String> getValueMap();
 
+    /**
+     * 值映射的缓存时间(毫秒), 大于 0 时由 {@link ValueMapCache} 缓存, 期间不再调用 getValueMap
+     * 默认不缓存, 每次导入导出都重新创建实例并加载; 如字典表等变化不频繁的映射可以覆盖此方法
+     */
+    default long cacheMillis() {
+        return 0;
+    }
+
 }
@@ -0,0 +1,201 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 以记录事件的方式读取 xls, 单元格记录解码后立即推送, 不构建 HSSFWorkbook 的对象树
+ */
+final class XlsStreamReader {
+
+    private XlsStreamReader() {
+    }
+
+    static void read(File file, SheetEventHandler handler) {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            RecordListener listener = new RecordListener(handler);
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(new MissingRecordAwareHSSFListener(listener.formatListener));
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // FormulaRecord.getCachedResultType 返回的类型代码, 与 CellType 的代码一致, 不使用已废弃的 CellType.getCode
+    private static final int CACHED_NUMERIC = 0;
+    private static final int CACHED_STRING = 1;
+    private static final int CACHED_BOOLEAN = 4;
+    private static final int CACHED_ERROR = 5;
+
+    private static class RecordListener implements HSSFListener {
+        private final SheetEventHandler handler;
+        private final FormatTrackingHSSFListener formatListener;
+        private final List<String> sheetNames = new ArrayList<>();
+        private final BitSet emptyRows = new BitSet(); // 有行记录但还未出现单元格的行
+        private SSTRecord sst;
+
+        private int sheetIndex = -1;
+        private int depth;            // BOF/EOF 的嵌套层数, 图表等子流也有自己的 BOF/EOF
+        private boolean inSheet;      // 正在读取需要遍历的 sheet 页
+        private int rowNum = -1;      // 已推送 startRow 的行
+        private boolean rowsStopped;  // 处理器不再需要该页剩余的行
+        private int stringFormulaCol = -1; // 紧随公式记录的 StringRecord 对应的列
+
+        RecordListener(SheetEventHandler handler) {
+            this.handler = handler;
+            this.formatListener = new FormatTrackingHSSFListener(this);
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    sheetNames.add(((BoundSheetRecord) record).getSheetname());
+                    break;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    break;
+                case DateWindow1904Record.sid:
+                    // 位于工作簿全局流中, 早于所有 sheet 页
+                    handler.date1904(((DateWindow1904Record) record).getWindowing() == 1);
+                    break;
+                case BOFRecord.sid:
+                    depth++;
+                    if (depth == 1 && ((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                        sheetIndex++;
+                        inSheet = handler.startSheet(sheetIndex, sheetNames.get(sheetIndex));
+                        rowNum = -1;
+                        rowsStopped = false;
+                        emptyRows.clear();
+                    }
+                    break;
+                case EOFRecord.sid:
+                    depth--;
+                    if (depth == 0 && inSheet) {
+                        inSheet = false;
+                        handler.endSheet();
+                    }
+                    break;
+                default:
+                    if (inSheet && depth == 1) {
+                        processSheetRecord(record);
+                    }
+                    break;
+            }
+        }
+
+        private void processSheetRecord(Record record) {
+            if (rowsStopped) {
+                return;
+            }
+            if (record.getSid() == DimensionsRecord.sid) {
+                // lastCol 为最后一列的下一列
+                handler.dimension(((DimensionsRecord) record).getLastCol() - 1);
+                return;
+            }
+            if (record.getSid() == RowRecord.sid) {
+                emptyRows.set(((RowRecord) record).getRowNumber());
+                return;
+            }
+            if (record instanceof LastCellOfRowDummyRecord) {
+                // 缺失的行同样会收到行尾记录, 只有真实存在的行才推送
+                int lastRow = ((LastCellOfRowDummyRecord) record).getRow();
+                if (lastRow != rowNum && emptyRows.get(lastRow)) {
+                    rowNum = lastRow;
+                    handler.startRow(rowNum);
+                }
+                emptyRows.clear(lastRow);
+                if (lastRow == rowNum && !handler.endRow()) {
+                    rowsStopped = true;
+                }
+                return;
+            }
+            if (!(record instanceof CellValueRecordInterface) && record.getSid() != StringRecord.sid) {
+                return;
+            }
+            if (record.getSid() == StringRecord.sid) {
+                if (stringFormulaCol >= 0) {
+                    handler.stringCell(stringFormulaCol, ((StringRecord) record).getString());
+                    stringFormulaCol = -1;
+                }
+                return;
+            }
+
+            CellValueRecordInterface cellRecord = (CellValueRecordInterface) record;
+            if (cellRecord.getRow() != rowNum) {
+                rowNum = cellRecord.getRow();
+                handler.startRow(rowNum);
+            }
+            int colNum = cellRecord.getColumn();
+            switch (record.getSid()) {
+                case NumberRecord.sid:
+                    numericCell(cellRecord, ((NumberRecord) record).getValue());
+                    break;
+                case RKRecord.sid:
+                    numericCell(cellRecord, ((RKRecord) record).getRKNumber());
+                    break;
+                case LabelSSTRecord.sid:
+                    handler.stringCell(colNum, sst.getString(((LabelSSTRecord) record).getSSTIndex()).getString());
+                    break;
+                case LabelRecord.sid:
+                    handler.stringCell(colNum, ((LabelRecord) record).getValue());
+                    break;
+                case BoolErrRecord.sid: {
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    if (boolErr.isBoolean()) {
+                        handler.booleanCell(colNum, boolErr.getBooleanValue());
+                    } else {
+                        handler.errorCell(colNum, boolErr.getErrorValue());
+                    }
+                    break;
+                }
+                case FormulaRecord.sid:
+                    formulaCell((FormulaRecord) record);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // 公式单元格按缓存的计算结果读取
+        private void formulaCell(FormulaRecord formula) {
+            int colNum = formula.getColumn();
+            switch (formula.getCachedResultType()) {
+                case CACHED_STRING:
+                    stringFormulaCol = colNum;
+                    break;
+                case CACHED_BOOLEAN:
+                    handler.booleanCell(colNum, formula.getCachedBooleanValue());
+                    break;
+                case CACHED_ERROR:
+                    handler.errorCell(colNum, (byte) formula.getCachedErrorValue());
+                    break;
+                case CACHED_NUMERIC:
+                    numericCell(formula, formula.getValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void numericCell(CellValueRecordInterface cellRecord, double value) {
+            handler.numericCell(cellRecord.getColumn(), value,
+                    formatListener.getFormatIndex(cellRecord), formatListener.getFormatString(cellRecord));
+        }
+    }
+}
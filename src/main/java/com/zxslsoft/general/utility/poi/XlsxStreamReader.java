@@ -0,0 +1,296 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * 以 SAX 事件的方式读取 xlsx, 共享字符串只读取一次(并行遍历时各任务也共用一份), sheet 页的 xml 边解析边推送, 不构建 XSSF 的对象树
+ */
+final class XlsxStreamReader {
+
+    private XlsxStreamReader() {
+    }
+
+    static void read(File file, SheetEventHandler handler) {
+        read(file, null, handler);
+    }
+
+    /**
+     * parts 为 null 时从本次打开的文件中读取共享字符串和样式
+     */
+    static void read(File file, SharedParts parts, SheetEventHandler handler) {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            if (parts == null) {
+                parts = new SharedParts(pkg, reader);
+            }
+            handler.date1904(parts.date1904);
+
+            XSSFReader.SheetIterator sheetIterator = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int sheetIndex = -1;
+            while (sheetIterator.hasNext()) {
+                try (InputStream sheetData = sheetIterator.next()) {
+                    sheetIndex++;
+                    if (!handler.startSheet(sheetIndex, sheetIterator.getSheetName())) {
+                        continue;
+                    }
+                    XMLReader parser = SAXHelper.newXMLReader();
+                    parser.setContentHandler(new SheetHandler(parts, handler));
+                    try {
+                        parser.parse(new InputSource(sheetData));
+                    } catch (StopSheet e) {
+                        // 处理器不再需要该页剩余的行
+                    }
+                    handler.endSheet();
+                }
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    /**
+     * 只读取一次共享字符串和样式, 供并行遍历各 sheet 页的任务共用
+     */
+    static SharedParts loadSharedParts(File file) {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+            return new SharedParts(pkg, new XSSFReader(pkg));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    // workbook.xml 中 workbookPr 的 date1904 属性
+    private static boolean isDate1904(XSSFReader reader) throws Exception {
+        ValueContainer<Boolean> date1904 = new ValueContainer<>(false);
+        try (InputStream workbookData = reader.getWorkbookData()) {
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("workbookPr".equals(localName)) {
+                        String value = attributes.getValue("date1904");
+                        date1904.set("1".equals(value) || "true".equals(value));
+                    }
+                }
+            });
+            parser.parse(new InputSource(workbookData));
+        }
+        return date1904.get();
+    }
+
+    // 列号, 如 "AB12" -> 27
+    static int columnIndex(String cellReference) {
+        int col = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            col = col * 26 + (c - 'A' + 1);
+        }
+        return col - 1;
+    }
+
+    private static class SheetHandler extends DefaultHandler {
+        private final SharedParts parts;
+        private final SheetEventHandler handler;
+        private final StringBuilder text = new StringBuilder();
+
+        private int rowNum = -1;
+        private int colNum = -1;
+        private String cellType;
+        private int styleIndex;
+        private boolean inValue;
+        private boolean inInlineString;
+
+        SheetHandler(SharedParts parts, SheetEventHandler handler) {
+            this.parts = parts;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "dimension": {
+                    // 如 "A1:E20", 只有一个单元格时为 "A1"
+                    String ref = attributes.getValue("ref");
+                    if (ref != null && !ref.isEmpty()) {
+                        handler.dimension(columnIndex(ref.substring(ref.indexOf(':') + 1)));
+                    }
+                    break;
+                }
+                case "row": {
+                    String r = attributes.getValue("r");
+                    rowNum = r == null ? rowNum + 1 : Integer.parseInt(r) - 1;
+                    colNum = -1;
+                    handler.startRow(rowNum);
+                    break;
+                }
+                case "c": {
+                    String r = attributes.getValue("r");
+                    colNum = r == null ? colNum + 1 : columnIndex(r);
+                    cellType = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    styleIndex = s == null ? 0 : Integer.parseInt(s);
+                    text.setLength(0);
+                    break;
+                }
+                case "v":
+                    inValue = true;
+                    break;
+                case "is":
+                    inInlineString = true;
+                    break;
+                case "t":
+                    if (inInlineString) {
+                        inValue = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    inValue = false;
+                    break;
+                case "is":
+                    inInlineString = false;
+                    break;
+                case "c":
+                    endCell();
+                    break;
+                case "row":
+                    if (!handler.endRow()) {
+                        throw new StopSheet();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void endCell() {
+            String value = text.toString();
+            if ("s".equals(cellType)) {
+                if (!value.isEmpty()) {
+                    handler.stringCell(colNum, parts.strings.getItemAt(Integer.parseInt(value)).getString());
+                }
+            } else if ("inlineStr".equals(cellType) || "str".equals(cellType)) {
+                handler.stringCell(colNum, value);
+            } else if ("b".equals(cellType)) {
+                handler.booleanCell(colNum, "1".equals(value));
+            } else if ("e".equals(cellType)) {
+                byte code = errorCode(value);
+                if (FormulaError.isValidCode(code)) {
+                    handler.errorCell(colNum, code);
+                } else {
+                    handler.stringCell(colNum, value);
+                }
+            } else if (!value.isEmpty()) {
+                NumberFormat format = parts.numberFormat(styleIndex);
+                handler.numericCell(colNum, Double.parseDouble(value), format.index, format.format);
+            }
+        }
+
+        private static byte errorCode(String value) {
+            try {
+                return FormulaError.forString(value).getCode();
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 各 sheet 页共用的共享字符串、样式对应的数字格式和日期系统, 构建后只读, 可以被多个线程同时使用
+     */
+    static final class SharedParts {
+        private final ReadOnlySharedStringsTable strings;
+        private final NumberFormat[] numberFormats;
+        private final boolean date1904;
+
+        private SharedParts(OPCPackage pkg, XSSFReader reader) throws Exception {
+            this.strings = new ReadOnlySharedStringsTable(pkg, false);
+            StylesTable styles = reader.getStylesTable();
+            // 样式表不是线程安全的, 预先算好每个样式的数字格式
+            int numCellStyles = styles == null ? 0 : styles.getNumCellStyles();
+            this.numberFormats = new NumberFormat[numCellStyles];
+            for (int i = 0; i < numCellStyles; i++) {
+                XSSFCellStyle style = styles.getStyleAt(i);
+                numberFormats[i] = numberFormat(style.getDataFormat(), style.getDataFormatString());
+            }
+            this.date1904 = isDate1904(reader);
+        }
+
+        private NumberFormat numberFormat(int styleIndex) {
+            if (styleIndex < numberFormats.length) {
+                return numberFormats[styleIndex];
+            }
+            return numberFormat(0, null);
+        }
+
+        private static NumberFormat numberFormat(int formatIndex, String formatString) {
+            return new NumberFormat(formatIndex, formatString == null ? BuiltinFormats.getBuiltinFormat(formatIndex) : formatString);
+        }
+    }
+
+    // 中止当前 sheet 页的解析
+    private static final class StopSheet extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // 单元格样式对应的数字格式
+    private static class NumberFormat {
+        final int index;
+        final String format;
+
+        NumberFormat(int index, String format) {
+            this.index = index;
+            this.format = format;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 转换器: 整数的范围, 数值单元格按数值还是按显示的文本转换
+ */
+public class ConvertersTest {
+
+    public enum Level {
+        LOW("01"), HIGH("02");
+
+        private final String code;
+
+        Level(String code) {
+            this.code = code;
+        }
+
+        @Override
+        public String toString() {
+            return code;
+        }
+    }
+
+    public static class Code {
+        final String text;
+
+        Code(String text) {
+            this.text = text;
+        }
+    }
+
+    public static class Item {
+        @ExcelHeader("编号")
+        String number;
+        @ExcelHeader("首位")
+        Character first;
+        @ExcelHeader("级别")
+        Level level;
+        @ExcelHeader("代码")
+        Code code;
+        @ExcelHeader("数量")
+        int count;
+        @ExcelHeader("大数")
+        BigInteger big;
+    }
+
+    @Test
+    public void integralBounds() {
+        assertEquals(Long.MIN_VALUE, (long) Converters.get(Long.class).fromNumber(-0x1p63));
+        assertEquals(Integer.MAX_VALUE, (int) Converters.get(Integer.class).fromNumber(Integer.MAX_VALUE));
+        for (double outOfRange : new double[]{0x1p63, 9.223372036854775807E18, Double.NaN, 1.5}) {
+            try {
+                Converters.get(Long.class).fromNumber(outOfRange);
+                fail(String.valueOf(outOfRange));
+            } catch (RuntimeException expected) {
+            }
+        }
+        try {
+            Converters.get(Integer.class).fromNumber(Integer.MAX_VALUE + 1.0);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(new BigInteger("100000000000000000000"), Converters.get(BigInteger.class).fromNumber(1e20));
+    }
+
+    @Test
+    public void numericCellsUseDisplayedTextUnlessConverterTakesNumbers() {
+        Converters.register(Code.class, str -> str == null || str.isEmpty() ? null : new Code(str));
+        try {
+            for (boolean xls : new boolean[]{false, true}) {
+                byte[] bytes = items(xls);
+                for (ExcelImporter importer : new ExcelImporter[]{ExcelImporterTest.workbook(bytes), ExcelImporterTest.streaming(bytes)}) {
+                    List<Item> items = importer.convertToList(Item.class);
+                    Item item = items.get(0);
+                    assertEquals("00123", item.number);
+                    assertEquals(Character.valueOf('0'), item.first);
+                    assertEquals(Level.HIGH, item.level);
+                    assertEquals("00123", item.code.text);
+                    assertEquals(123, item.count);
+                    assertEquals(BigInteger.valueOf(123), item.big);
+                }
+            }
+        } finally {
+            Converters.unregister(Code.class);
+        }
+    }
+
+    // 各列都是格式为 00000 或 00 的数值单元格
+    private static byte[] items(boolean xls) {
+        Workbook workbook = xls ? new HSSFWorkbook() : new XSSFWorkbook();
+        CellStyle padded = workbook.createCellStyle();
+        padded.setDataFormat(workbook.createDataFormat().getFormat("00000"));
+        CellStyle twoDigits = workbook.createCellStyle();
+        twoDigits.setDataFormat(workbook.createDataFormat().getFormat("00"));
+        Sheet sheet = workbook.createSheet();
+        String[] headers = {"编号", "首位", "级别", "代码", "数量", "大数"};
+        Row header = sheet.createRow(0);
+        Row row = sheet.createRow(1);
+        for (int col = 0; col < headers.length; col++) {
+            header.createCell(col).setCellValue(headers[col]);
+            Cell cell = row.createCell(col);
+            cell.setCellValue(col == 2 ? 2 : 123);
+            cell.setCellStyle(col == 2 ? twoDigits : padded);
+        }
+        return ExcelImporter.getWorkbookBytes(workbook);
+    }
+}
@@ -0,0 +1,359 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.PictureData;
+import org.apache.poi.ss.usermodel.SheetVisibility;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.DefaultTempFileCreationStrategy;
+import org.apache.poi.util.TempFile;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导出的测试: DTO 导出, 并行生成 sheet 页, 拆分 sheet 页和文件, 下拉选项 sheet 页
+ */
+public class ExcelExporterTest {
+
+    public static class Order {
+        @ExcelHeader(value = "地区", valueMap = {@ValueMap(key = "华东,上海", value = "1"), @ValueMap(key = "华北,北京", value = "2")})
+        String region;
+    }
+
+    public static class Status implements ValueMapInterface {
+        static volatile String enabled = "启用";
+
+        @Override
+        public Map<String, String> getValueMap() {
+            Map<String, String> valueMap = new HashMap<>();
+            valueMap.put(enabled, "1");
+            valueMap.put("停用", "0");
+            return valueMap;
+        }
+
+        @Override
+        public long cacheMillis() {
+            return 60_000;
+        }
+    }
+
+    public static class Account {
+        @ExcelHeader(value = "账号", order = 1)
+        String name;
+        @ExcelHeader(value = "状态", order = 2, valueMapClass = Status.class)
+        String status;
+        @ExcelHeader(value = "类型", order = 3, hidden = true, valueMap = {@ValueMap(key = "个人", value = "P")})
+        String type;
+
+        Account(String name, String status, String type) {
+            this.name = name;
+            this.status = status;
+            this.type = type;
+        }
+    }
+
+    @Test
+    public void dtoExportReadsValueMapClassPerExport() throws IOException {
+        List<Account> accounts = Utils.asList(new Account("a", "1", "P"), new Account("b", "0", "X"));
+        assertEquals("[[账号, 状态, 类型], [a, 启用, 个人], [b, 停用, X]]", rows(ExcelExporter.ofDtos(Account.class, accounts).export()));
+
+        // 列计划按类型缓存, valueMapClass 的映射在缓存失效后重新加载
+        Status.enabled = "正常";
+        ExcelUtils.getValueMapCache().invalidate(Status.class);
+        try {
+            byte[] bytes = ExcelExporter.ofDtos(Account.class, accounts.stream()).export();
+            assertEquals("[[账号, 状态, 类型], [a, 正常, 个人], [b, 停用, X]]", rows(bytes));
+            try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes))) {
+                assertTrue(workbook.getSheetAt(0).isColumnHidden(2));
+            }
+        } finally {
+            Status.enabled = "启用";
+            ExcelUtils.getValueMapCache().invalidate(Status.class);
+        }
+    }
+
+    @Test
+    public void typedDatesShareOneStylePerFormat() throws IOException {
+        List<List<Object>> rows = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            rows.add(Utils.asList(LocalDate.of(2020, 1, i % 28 + 1), LocalDateTime.of(2020, 1, 1, 0, i), new Date(i * 1000L)));
+        }
+        byte[] bytes = new ExcelExporter<Object>().setSingleSheetDataSet(rows).setCellValueFormat(ExcelUtils.SET_TYPED_VALUE).export();
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes))) {
+            Set<String> formats = new HashSet<>();
+            Set<Short> styles = new HashSet<>();
+            workbook.getSheetAt(0).forEach(row -> row.forEach(cell -> {
+                formats.add(cell.getCellStyle().getDataFormatString());
+                styles.add(cell.getCellStyle().getIndex());
+            }));
+            assertEquals(Utils.asSet(ExcelUtils.DATE_FORMAT, ExcelUtils.DATE_TIME_FORMAT), formats);
+            assertEquals(2, styles.size());
+        }
+    }
+
+    @Test
+    public void parallelExportDoesNotDependOnThreadTiming() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            String serial = pictures(exportSheets(null, -1));
+            for (int slowSheet = 0; slowSheet < 3; slowSheet++) {
+                byte[] bytes = exportSheets(executor, slowSheet);
+                // 图片按 sheet 页的顺序添加, 与顺序生成一致; 样式表在多次并行导出之间相同
+                assertEquals(serial, pictures(bytes));
+                assertEquals(cells(exportSheets(executor, -1)), cells(bytes));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedParallelExportCancelsOtherSheets() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        AtomicInteger written = new AtomicInteger();
+        try {
+            ExcelExporter<Object> exporter = new ExcelExporter<>().setStreaming(10).setParallel(true).setExecutorService(executor);
+            exporter.addSheetData(SheetData.of(Collections.singletonList(Utils.asList((Object) "a"))));
+            for (int i = 0; i < 2; i++) {
+                // 不会结束的数据源, 只能靠取消停止
+                exporter.addSheetData(SheetData.of(Stream.generate(() -> {
+                    written.incrementAndGet();
+                    return Utils.asList((Object) "b");
+                }).iterator()));
+            }
+            AtomicInteger lateCalls = new AtomicInteger();
+            AtomicBoolean returned = new AtomicBoolean();
+            exporter.setCellValueFormat((sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, value) -> {
+                if (returned.get()) {
+                    lateCalls.incrementAndGet();
+                }
+                if (sheetIndex == 0) {
+                    throw new IllegalStateException("boom");
+                }
+                return String.valueOf(value);
+            });
+            try {
+                exporter.export();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("boom", e.getMessage());
+            }
+            // 返回前已取消并等待其余 sheet 页, 之后不会再写入已释放的工作簿; 调用方的线程池不会被关闭
+            returned.set(true);
+            int count = written.get();
+            Thread.sleep(200);
+            assertEquals(count, written.get());
+            assertEquals(0, lateCalls.get());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 3 个 sheet 页, 每行为日期、日期时间、数字、图片; executor 为 null 时顺序生成; slowSheet 页的每个单元格延迟写入, 以改变各线程的先后
+    private static byte[] exportSheets(ExecutorService executor, int slowSheet) {
+        ExcelExporter<Object> exporter = new ExcelExporter<>().setStreaming(100).setParallel(executor != null).setExecutorService(executor);
+        for (int sheet = 0; sheet < 3; sheet++) {
+            List<List<Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                byte[] png = {(byte) 0x89, 'P', 'N', 'G', (byte) sheet, (byte) i};
+                rows.add(Utils.asList(LocalDate.of(2020, 1, i + 1), LocalDateTime.of(2020, 1, 1, sheet, i), i * 1.5, png));
+            }
+            exporter.addSheetData(SheetData.of(rows));
+        }
+        return exporter.setCellValueFormat((sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, value) -> {
+            if (sheetIndex == slowSheet) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ExcelUtils.SET_TYPED_VALUE.accept(sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, value);
+        }).export();
+    }
+
+    private static String pictures(byte[] bytes) throws IOException {
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes))) {
+            List<String> pictures = new ArrayList<>();
+            for (PictureData picture : workbook.getAllPictures()) {
+                pictures.add(Arrays.toString(picture.getData()));
+            }
+            return pictures.toString();
+        }
+    }
+
+    private static String cells(byte[] bytes) throws IOException {
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes))) {
+            List<String> cells = new ArrayList<>();
+            workbook.forEach(sheet -> sheet.forEach(row -> row.forEach(cell ->
+                    cells.add(cell.getAddress() + "=" + cell + "@" + cell.getCellStyle().getIndex()))));
+            return cells.toString();
+        }
+    }
+
+    @Test
+    public void shardSheetsSkipConfiguredNames() throws IOException {
+        List<byte[]> files = new ArrayList<>();
+        int count = new ExcelExporter<Object>()
+                .setDataSet(Utils.asList(rows("h", "1", "2"), rows("h", "3")))
+                .setSheetNames("a", "a_2")
+                .setMaxRowsPerSheet(2)
+                .setMaxRowsPerFile(100)
+                .exportParts(partIndex -> new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        files.add(toByteArray());
+                    }
+                });
+        assertEquals(1, count);
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(files.get(0)))) {
+            List<String> names = new ArrayList<>();
+            workbook.forEach(sheet -> names.add(sheet.getSheetName()));
+            assertEquals("[a, a_3, a_2]", names.toString());
+        }
+        assertEquals("[[h], [2]]", rows(files.get(0), 1));
+        assertEquals("[[h], [3]]", rows(files.get(0), 2));
+    }
+
+    @Test
+    public void failedExportPartsDisposesEveryPart() throws IOException {
+        File dir = Files.createTempDirectory("parts").toFile();
+        TempFile.setTempFileCreationStrategy(new DefaultTempFileCreationStrategy(dir));
+        try {
+            // 第 3 个文件生成时失败, 此时它还未提交写出; 以及第 2 个文件写出时失败
+            for (int failure = 0; failure < 2; failure++) {
+                boolean failInSink = failure == 1;
+                List<List<Object>> rows = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    rows.add(Utils.asList((Object) ("r" + i)));
+                }
+                try {
+                    new ExcelExporter<Object>().setSingleSheetDataSet(rows).setStreaming(10).setMaxRowsPerFile(2)
+                            .setRepeatFirstRow(false)
+                            .setCellValueFormat((sheetIndex, rowIndex, colIndex, workbook, sheet, row, cell, value) -> {
+                                if (!failInSink && "r5".equals(value)) {
+                                    throw new IllegalStateException("boom");
+                                }
+                                return String.valueOf(value);
+                            })
+                            .exportParts(partIndex -> {
+                                if (failInSink && partIndex == 1) {
+                                    throw new IllegalStateException("boom");
+                                }
+                                return new ByteArrayOutputStream();
+                            });
+                    fail();
+                } catch (IllegalStateException e) {
+                    assertEquals("boom", e.getMessage());
+                }
+                assertEquals(Collections.emptyList(), leftovers(dir));
+            }
+        } finally {
+            TempFile.setTempFileCreationStrategy(new DefaultTempFileCreationStrategy());
+            for (File file : nullSafeFiles(dir)) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // 临时目录下遗留的文件, 不含 POI 建的子目录
+    private static List<String> leftovers(File dir) {
+        List<String> files = new ArrayList<>();
+        for (File file : nullSafeFiles(dir)) {
+            if (file.isDirectory()) {
+                files.addAll(leftovers(file));
+            } else {
+                files.add(file.getName());
+            }
+        }
+        return files;
+    }
+
+    private static List<File> nullSafeFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? Collections.emptyList() : Arrays.asList(files);
+    }
+
+    private static List<List<Object>> rows(String... values) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (String value : values) {
+            rows.add(Utils.asList((Object) value));
+        }
+        return rows;
+    }
+
+    public static class Template {
+        @ExcelHeader(value = "性别", defaultValues = {"男", "女"})
+        String gender;
+        @ExcelHeader("")
+        String ignored;
+    }
+
+    @Test
+    public void templateWritesDefaultValuesAndSkipsBlankHeaders() {
+        assertEquals("[[性别], [男], [女]]", rows(ExcelExporter.exportDtoTemplate(Template.class)));
+        assertEquals(Utils.asList("男", "女"), ExcelUtils.getColumnDefaultValues(Template.class, "性别"));
+        try {
+            ExcelUtils.getColumnDefaultValues(Template.class, "年龄");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("年龄"));
+        }
+    }
+
+    @Test
+    public void lookupSheetDoesNotClashWithExistingSheets() {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        workbook.createSheet("options");
+        workbook.createSheet("Options_2");
+        XSSFSheet lookupSheet = ExcelExporter.createLookupSheet(workbook);
+        assertEquals("options_3", lookupSheet.getSheetName());
+        assertEquals(SheetVisibility.VERY_HIDDEN, workbook.getSheetVisibility(workbook.getSheetIndex(lookupSheet)));
+    }
+
+    @Test
+    public void templateSpillsOptionsWithCommasToLookupSheet() throws IOException {
+        // 选项含逗号, 不能写入显式列表
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(ExcelExporter.exportDtoTemplate(Order.class)))) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals("地区", workbook.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+            assertEquals(SheetVisibility.VERY_HIDDEN, workbook.getSheetVisibility(1));
+            Set<String> options = new HashSet<>();
+            workbook.getSheetAt(1).forEach(row -> options.add(row.getCell(0).getStringCellValue()));
+            assertEquals(Utils.asSet("华东,上海", "华北,北京"), options);
+            assertEquals(1, workbook.getSheetAt(0).getDataValidations().size());
+        }
+    }
+
+    static String rows(byte[] bytes) {
+        return rows(bytes, 0);
+    }
+
+    static String rows(byte[] bytes, int sheetIndex) {
+        List<List<String>> rows = new ArrayList<>();
+        new ExcelImporter().setWorkbook(new ByteArrayInputStream(bytes)).setWalkSheets(sheetIndex).walkThrough((workbook, sheet, row, cell) -> {
+            while (rows.size() <= row.getRowNum()) {
+                rows.add(new ArrayList<>());
+            }
+            rows.get(row.getRowNum()).add(ExcelUtils.getCellString(cell));
+        });
+        return rows.toString();
+    }
+}
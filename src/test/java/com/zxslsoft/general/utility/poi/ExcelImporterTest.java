@@ -0,0 +1,241 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导入的往返测试: 流式读取与整本加载的结果一致, 1904 日期系统, 空单元格与基本类型, 并行与顺序的结果一致
+ */
+public class ExcelImporterTest {
+
+    public static class Person {
+        @ExcelHeader("姓名")
+        String name;
+        @ExcelHeader("年龄")
+        int age = -1;
+        @ExcelHeader("分数")
+        Double score;
+        @ExcelHeader("生日")
+        LocalDate birthday;
+        @ExcelHeader("在职")
+        Boolean active;
+
+        @Override
+        public String toString() {
+            return name + "|" + age + "|" + score + "|" + birthday + "|" + active;
+        }
+    }
+
+    @Test
+    public void streamingMatchesWorkbookMode() {
+        for (boolean xls : new boolean[]{false, true}) {
+            byte[] bytes = people(xls, 1);
+            assertEquals(str(workbook(bytes).convertToMap()), str(streaming(bytes).convertToMap()));
+            assertEquals(str(workbook(bytes).convertToList(Person.class)), str(streaming(bytes).convertToList(Person.class)));
+        }
+    }
+
+    @Test
+    public void convertsTypedValues() {
+        for (boolean xls : new boolean[]{false, true}) {
+            byte[] bytes = people(xls, 1);
+            for (ExcelImporter importer : new ExcelImporter[]{workbook(bytes), streaming(bytes)}) {
+                List<Person> people = importer.convertToList(Person.class);
+                // 中间的空行也会回调: 文本字段为空字符串, 基本类型保留默认值, 其余为 null
+                assertEquals(4, people.size());
+                assertEquals("张三|30|95.5|1990-05-06|true", people.get(0).toString());
+                assertEquals("|-1|null|null|null", people.get(1).toString());
+                assertEquals("李四|-1|null|null|false", people.get(2).toString());
+                assertEquals("王五|7|60.0|null|null", people.get(3).toString());
+            }
+        }
+    }
+
+    @Test
+    public void honoursDate1904() {
+        for (boolean xls : new boolean[]{false, true}) {
+            Workbook workbook = xls ? new HSSFWorkbook() : new XSSFWorkbook();
+            setDate1904(workbook);
+            Sheet sheet = workbook.createSheet();
+            sheet.createRow(0).createCell(0).setCellValue("生日");
+            Cell cell = sheet.createRow(1).createCell(0);
+            // 直接写入 1904 日期系统的序列号
+            cell.setCellValue(DateUtil.getExcelDate(LocalDateTime.of(2020, 1, 2, 0, 0), true));
+            CellStyle style = workbook.createCellStyle();
+            style.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            cell.setCellStyle(style);
+            byte[] bytes = ExcelImporter.getWorkbookBytes(workbook);
+
+            for (ExcelImporter importer : new ExcelImporter[]{workbook(bytes), streaming(bytes)}) {
+                assertEquals(LocalDate.of(2020, 1, 2), importer.convertToList(Person.class).get(0).birthday);
+            }
+            assertEquals("2020-01-02 00:00:00", workbook(bytes).convertToMap().get(0).get("生日"));
+            assertEquals("2020-01-02 00:00:00", streaming(bytes).convertToMap().get(0).get("生日"));
+        }
+    }
+
+    @Test
+    public void styledBlankCellsDoNotWidenStreamingRange() {
+        for (boolean xls : new boolean[]{false, true}) {
+            Workbook workbook = xls ? new HSSFWorkbook() : new XSSFWorkbook();
+            Sheet sheet = workbook.createSheet();
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("姓名");
+            header.createCell(1).setCellValue("年龄");
+            Row row = sheet.createRow(1);
+            row.createCell(0).setCellValue("张三");
+            // 只有样式的空单元格会计入 dimension, 但不应扩大列的范围
+            row.createCell(6).setCellStyle(workbook.createCellStyle());
+            sheet.createRow(2).createCell(1).setCellValue(3);
+            byte[] bytes = ExcelImporter.getWorkbookBytes(workbook);
+
+            String expected = "[{姓名=张三, 年龄=}, {姓名=, 年龄=3.0}]";
+            assertEquals(expected, str(workbook(bytes).convertToMap()));
+            assertEquals(expected, str(streaming(bytes).convertToMap()));
+        }
+    }
+
+    @Test
+    public void cellStringFormatsNumbersLikeExcel() {
+        Workbook workbook = new XSSFWorkbook();
+        Row row = workbook.createSheet().createRow(0);
+        row.createCell(0).setCellValue(12);
+        row.createCell(1).setCellValue(0.1 + 0.2);
+        row.createCell(2).setCellFormula("3*4");
+        row.createCell(3).setCellValue(" 文本 ");
+        row.createCell(4).setCellValue(LocalDateTime.of(2020, 1, 2, 3, 4, 5));
+        CellStyle dateStyle = workbook.createCellStyle();
+        dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+        row.getCell(4).setCellStyle(dateStyle);
+        workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+        assertEquals("12", ExcelUtils.getCellString(row.getCell(0)));
+        assertEquals("0.3", ExcelUtils.getCellString(row.getCell(1)));
+        assertEquals("12", ExcelUtils.getCellString(row.getCell(2)));
+        assertEquals("文本", ExcelUtils.getCellString(row.getCell(3)));
+        assertEquals("2020-01-02 03:04:05", ExcelUtils.getCellString(row.getCell(4)));
+        assertEquals("", ExcelUtils.getCellString(row.getCell(5)));
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        for (boolean xls : new boolean[]{false, true}) {
+            byte[] bytes = people(xls, 3);
+            Function<byte[], ExcelImporter> workbook = ExcelImporterTest::workbook;
+            Function<byte[], ExcelImporter> streaming = ExcelImporterTest::streaming;
+            for (Function<byte[], ExcelImporter> mode : Utils.asList(workbook, streaming)) {
+                String serial = str(mode.apply(bytes).setWalkSheets(0, 1, 2).convertToList(Person.class));
+                assertEquals(serial, str(mode.apply(bytes).setWalkSheets(0, 1, 2).parallelConvertToList(Person.class)));
+                assertEquals(str(mode.apply(bytes).setWalkSheets(0, 1, 2).convertToMap()),
+                        str(mode.apply(bytes).setWalkSheets(0, 1, 2).parallelConvertToMap()));
+            }
+        }
+    }
+
+    @Test
+    public void failedParallelImportWaitsForOtherSheets() throws Exception {
+        byte[] bytes = people(false, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AtomicInteger visits = new AtomicInteger();
+            try {
+                streaming(bytes).setWalkSheets(0, 1, 2, 3).setExecutorService(executor)
+                        .parallelWalkThrough((workbook, sheet, row, cell) -> {
+                            if ("sheet0".equals(sheet.getSheetName())) {
+                                throw new IllegalStateException("boom");
+                            }
+                            visits.incrementAndGet();
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        });
+                fail();
+            } catch (RuntimeException e) {
+                assertTrue(String.valueOf(e), e instanceof IllegalStateException || e.getCause() instanceof IllegalStateException);
+            }
+            // 返回前已等待其余任务结束, 之后不会再有回调; 调用方的线程池不会被关闭
+            int visited = visits.get();
+            Thread.sleep(200);
+            assertEquals(visited, visits.get());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 每个 sheet 页: 标题行, 完整的一行, 空行, 缺列的行, 数值写为文本的行
+    static byte[] people(boolean xls, int sheets) {
+        Workbook workbook = xls ? new HSSFWorkbook() : new XSSFWorkbook();
+        CellStyle dateStyle = workbook.createCellStyle();
+        dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+        for (int i = 0; i < sheets; i++) {
+            Sheet sheet = workbook.createSheet("sheet" + i);
+            Row header = sheet.createRow(0);
+            String[] headers = {"姓名", "年龄", "分数", "生日", "在职"};
+            for (int col = 0; col < headers.length; col++) {
+                header.createCell(col).setCellValue(headers[col]);
+            }
+            Row row = sheet.createRow(1);
+            row.createCell(0).setCellValue(i == 0 ? "张三" : "张三" + i);
+            row.createCell(1).setCellValue(30);
+            row.createCell(2).setCellValue(95.5);
+            row.createCell(3).setCellValue(LocalDate.of(1990, 5, 6));
+            row.getCell(3).setCellStyle(dateStyle);
+            row.createCell(4).setCellValue(true);
+            sheet.createRow(2);
+            row = sheet.createRow(3);
+            row.createCell(0).setCellValue("李四");
+            row.createCell(4).setCellValue(false);
+            row = sheet.createRow(4);
+            row.createCell(0).setCellValue("王五");
+            row.createCell(1).setCellValue("7");
+            row.createCell(2).setCellValue("60");
+        }
+        return ExcelImporter.getWorkbookBytes(workbook);
+    }
+
+    static void setDate1904(Workbook workbook) {
+        if (workbook instanceof XSSFWorkbook) {
+            ((XSSFWorkbook) workbook).getCTWorkbook().getWorkbookPr().setDate1904(true);
+        } else {
+            ((DateWindow1904Record) ((HSSFWorkbook) workbook).getInternalWorkbook()
+                    .findFirstRecordBySid(DateWindow1904Record.sid)).setWindowing((short) 1);
+        }
+    }
+
+    static ExcelImporter workbook(byte[] bytes) {
+        return new ExcelImporter().setWorkbook(new ByteArrayInputStream(bytes));
+    }
+
+    static ExcelImporter streaming(byte[] bytes) {
+        return new ExcelImporter().setStreamingWorkbook(new ByteArrayInputStream(bytes));
+    }
+
+    static String str(List<?> list) {
+        List<String> rows = new ArrayList<>();
+        for (Object item : list) {
+            // HashMap 的顺序与插入顺序无关, 按键排序后比较
+            rows.add(item instanceof Map ? new TreeMap<>((Map<?, ?>) item).toString() : item.toString());
+        }
+        return rows.toString();
+    }
+}
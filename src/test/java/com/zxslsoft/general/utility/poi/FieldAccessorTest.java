@@ -0,0 +1,48 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldAccessorTest {
+
+    public static class Bean {
+        private final String code = "a";
+        private final int count = 1;
+        private Long id;
+    }
+
+    @Test
+    public void setsFinalFieldsReflectively() throws Exception {
+        Bean bean = new Bean();
+        FieldAccessor code = FieldAccessor.of(Bean.class, "code");
+        code.set(bean, "b");
+        assertEquals("b", code.get(bean));
+        FieldAccessor count = FieldAccessor.of(Bean.class, "count");
+        count.setInt(bean, 5);
+        assertEquals(5, count.getInt(bean));
+        ReflectUtils.setValue(bean, "code", "c");
+        assertEquals("c", ReflectUtils.getValue(bean, "code"));
+    }
+
+    @Test
+    public void readsAndWritesTyped() {
+        Bean bean = new Bean();
+        FieldAccessor id = FieldAccessor.of(Bean.class, "id");
+        assertNull(id.get(bean));
+        id.setLong(bean, 7L);
+        assertEquals(Long.valueOf(7), id.get(bean));
+        assertSame(id, FieldAccessor.of(Bean.class, "id"));
+    }
+
+    @Test
+    public void missingFieldIsNull() {
+        assertNull(FieldAccessor.of(Bean.class, "missing"));
+        assertNull(FieldAccessor.of(Bean.class, "missing"));
+    }
+
+    @Test(expected = NoSuchFieldException.class)
+    public void reflectUtilsThrowsForMissingField() throws Exception {
+        ReflectUtils.setValue(new Bean(), "missing", 1);
+    }
+}
@@ -0,0 +1,50 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图片登记: 按内容去重, 识别类型, xls 不支持 GIF
+ */
+public class PicturesTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+    private static final byte[] GIF = {'G', 'I', 'F', '8', '9', 'a', 0};
+
+    @Test
+    public void sameContentIsAddedOnce() throws IOException {
+        for (Workbook workbook : new Workbook[]{new XSSFWorkbook(), new HSSFWorkbook()}) {
+            Pictures pictures = Pictures.of(workbook);
+            byte[] data = PNG.clone();
+            int index = pictures.add(data);
+            assertEquals(index, pictures.add(PNG.clone()));
+            assertNotEquals(index, pictures.add(new byte[]{(byte) 0x89, 'P', 'N', 'G', 1, 2, 4}));
+            assertEquals(2, pictures.size());
+
+            // 登记后修改数组, 不影响已添加的图片
+            data[6] = 9;
+            Workbook read = workbook instanceof HSSFWorkbook ? new HSSFWorkbook(new ByteArrayInputStream(ExcelImporter.getWorkbookBytes(workbook)))
+                    : new XSSFWorkbook(new ByteArrayInputStream(ExcelImporter.getWorkbookBytes(workbook)));
+            assertArrayEquals(PNG, read.getAllPictures().get(0).getData());
+            assertEquals("png", read.getAllPictures().get(0).suggestFileExtension());
+        }
+    }
+
+    @Test
+    public void gifOnlyForXlsx() {
+        Pictures.of(new XSSFWorkbook()).add(GIF);
+        try {
+            Pictures.of(new HSSFWorkbook()).add(GIF);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("GIF"));
+        }
+    }
+}
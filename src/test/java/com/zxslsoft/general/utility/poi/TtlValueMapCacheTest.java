@@ -0,0 +1,103 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 值映射缓存: 加载期间失效, 不缓存的类型, cacheMillis 的变化
+ */
+public class TtlValueMapCacheTest {
+
+    public static class Slow implements ValueMapInterface {
+        static final AtomicInteger loads = new AtomicInteger();
+        static volatile CountDownLatch entered = new CountDownLatch(0);
+        static volatile CountDownLatch release = new CountDownLatch(0);
+
+        @Override
+        public Map<String, String> getValueMap() {
+            int load = loads.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonMap("v" + load, "1");
+        }
+
+        @Override
+        public long cacheMillis() {
+            return 60_000;
+        }
+    }
+
+    public static class Switching implements ValueMapInterface {
+        static final AtomicInteger loads = new AtomicInteger();
+        static volatile long cacheMillis = 0;
+
+        @Override
+        public Map<String, String> getValueMap() {
+            return new HashMap<>(Collections.singletonMap("v" + loads.incrementAndGet(), "1"));
+        }
+
+        @Override
+        public long cacheMillis() {
+            return cacheMillis;
+        }
+    }
+
+    @Test
+    public void invalidateDuringLoadDiscardsTheLoadedValue() throws Exception {
+        TtlValueMapCache cache = new TtlValueMapCache();
+        Slow.entered = new CountDownLatch(1);
+        Slow.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Map<String, String>> loading = executor.submit(() -> cache.get(Slow.class));
+            assertTrue(Slow.entered.await(5, TimeUnit.SECONDS));
+            int loads = Slow.loads.get();
+            // 加载已开始, 此时数据发生变化
+            cache.invalidate(Slow.class);
+            Slow.release.countDown();
+            assertEquals(Collections.singletonMap("v" + loads, "1"), loading.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonMap("v" + (loads + 1), "1"), cache.get(Slow.class));
+            assertEquals(Collections.singletonMap("v" + (loads + 1), "1"), cache.get(Slow.class));
+        } finally {
+            Slow.release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cacheMillisIsReadOnEveryLoad() {
+        TtlValueMapCache cache = new TtlValueMapCache();
+        Switching.cacheMillis = 0;
+        try {
+            Map<String, String> first = cache.get(Switching.class);
+            Map<String, String> second = cache.get(Switching.class);
+            assertNotEquals(first, second);
+            // 不缓存时每次返回的映射同样不可修改
+            for (Map<String, String> valueMap : Utils.asList(first, second)) {
+                try {
+                    valueMap.put("k", "v");
+                    fail();
+                } catch (UnsupportedOperationException expected) {
+                }
+            }
+
+            Switching.cacheMillis = 60_000;
+            Map<String, String> cached = cache.get(Switching.class);
+            assertNotEquals(second, cached);
+            assertSame(cached, cache.get(Switching.class));
+        } finally {
+            Switching.cacheMillis = 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.zxslsoft.general.utility.poi;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * walkThrough 的耗时对比, 不随 mvn test 运行, 需手动执行 main:
+ * 宽而稀疏的 sheet 页上, 原先先整页格式化求范围、再按 0..maxRow × 0..maxCol 回访并创建空白单元格的遍历,
+ * 与现在的整本加载、流式读取两种遍历; 参数为行数、列数、每行非空单元格的间隔
+ */
+public class WalkThroughBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int step = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        byte[] bytes = sparseSheet(rows, cols, step);
+        File file = File.createTempFile("walk-benchmark", ".xlsx");
+        try {
+            Files.write(file.toPath(), bytes);
+            for (int round = 0; round < 5; round++) {
+                long baseline = time(() -> baselineWalk(workbook(bytes), (workbook, sheet, row, cell) -> cell.getColumnIndex()));
+                long workbookMode = time(() -> new ExcelImporter().setWorkbook(new ByteArrayInputStream(bytes))
+                        .walkThrough((workbook, sheet, row, cell) -> cell.getColumnIndex()));
+                long streamingMode = time(() -> new ExcelImporter().setStreamingWorkbook(file)
+                        .walkThrough((workbook, sheet, row, cell) -> cell.getColumnIndex()));
+                System.out.printf("round %d: baseline %d ms, workbook %d ms, streaming %d ms%n",
+                        round, baseline, workbookMode, streamingMode);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    // 原先的遍历方式, 包括加载工作簿
+    private static void baselineWalk(Workbook workbook, ExcelImporter.ExcelWalker walker) {
+        Sheet sheet = workbook.getSheetAt(0);
+        Map<Integer, List<Integer>> notEmptyCells = new HashMap<>();
+        for (Row row : sheet) {
+            List<Integer> notEmptyCols = ExcelUtils.getNotEmptyColIndex(row, new HashSet<>());
+            if (!notEmptyCols.isEmpty()) {
+                notEmptyCells.put(row.getRowNum(), notEmptyCols);
+            }
+        }
+        int maxRow = 0;
+        int maxCol = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : notEmptyCells.entrySet()) {
+            maxRow = Math.max(maxRow, entry.getKey());
+            maxCol = Math.max(maxCol, Collections.max(entry.getValue()));
+        }
+        for (int rowNum = 0; rowNum <= maxRow; rowNum++) {
+            Row row = sheet.getRow(rowNum);
+            if (row == null) {
+                continue;
+            }
+            for (int colNum = 0; colNum <= maxCol; colNum++) {
+                Cell cell = row.getCell(colNum);
+                if (cell == null) {
+                    cell = row.createCell(colNum);
+                }
+                walker.accept(workbook, sheet, row, cell);
+            }
+        }
+    }
+
+    private static Workbook workbook(byte[] bytes) {
+        return new ExcelImporter().setWorkbook(new ByteArrayInputStream(bytes)).getWorkbook();
+    }
+
+    private static byte[] sparseSheet(int rows, int cols, int step) {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet();
+        for (int rowNum = 0; rowNum < rows; rowNum++) {
+            Row row = sheet.createRow(rowNum);
+            for (int colNum = rowNum % step; colNum < cols; colNum += step) {
+                row.createCell(colNum).setCellValue(rowNum % 2 == 0 ? "v" + colNum : String.valueOf(colNum));
+            }
+        }
+        return ExcelImporter.getWorkbookBytes(workbook);
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}